@@ -34,4 +34,17 @@ public interface Config extends net.runelite.client.config.Config
 	{
 		return 150;
 	}
+
+	String KEY_MODEL_CACHE_SIZE = "modelCacheSize";
+
+	@ConfigItem(
+		keyName = KEY_MODEL_CACHE_SIZE,
+		name = "Model Color Cache (KB)",
+		description = "Memory budget for caching model colors between glamours."
+	)
+	@Range(min = 64, max = 16384)
+	default int modelCacheSize()
+	{
+		return 1024;
+	}
 }
@@ -5,6 +5,8 @@ import java.util.Collection;
 
 public class Extensions
 {
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
 	public static short[] deepCopy(short[] array)
 	{
 		return array == null ? null : Arrays.copyOf(array, array.length);
@@ -32,6 +34,97 @@ public class Extensions
 		return array;
 	}
 
+	/**
+	 * Merges two sorted arrays of distinct values into a new sorted array of distinct values.
+	 */
+	public static short[] mergeSorted(short[] a, short[] b)
+	{
+		short[] merged = new short[a.length + b.length];
+		int i = 0, j = 0, k = 0;
+		while (i < a.length && j < b.length)
+		{
+			if (a[i] < b[j])
+			{
+				merged[k++] = a[i++];
+			}
+			else if (a[i] > b[j])
+			{
+				merged[k++] = b[j++];
+			}
+			else
+			{
+				merged[k++] = a[i++];
+				j++;
+			}
+		}
+		while (i < a.length)
+		{
+			merged[k++] = a[i++];
+		}
+		while (j < b.length)
+		{
+			merged[k++] = b[j++];
+		}
+		return k == merged.length ? merged : Arrays.copyOf(merged, k);
+	}
+
+	/**
+	 * @return a new sorted array of the distinct values in {@code array}
+	 */
+	public static short[] sortedDistinct(short[] array)
+	{
+		short[] sorted = Arrays.copyOf(array, array.length);
+		Arrays.sort(sorted);
+		int k = 0;
+		for (int i = 0; i < sorted.length; i++)
+		{
+			if (k == 0 || sorted[i] != sorted[k - 1])
+			{
+				sorted[k++] = sorted[i];
+			}
+		}
+		return k == sorted.length ? sorted : Arrays.copyOf(sorted, k);
+	}
+
+	/**
+	 * @return the first index from {@code from} until {@code to} holding {@code value}, or -1 if there is none
+	 */
+	public static int indexOf(int[] array, int from, int to, int value)
+	{
+		for (int i = from; i < to; i++)
+		{
+			if (array[i] == value)
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public static int indexOf(long[] array, int from, int to, long value)
+	{
+		for (int i = from; i < to; i++)
+		{
+			if (array[i] == value)
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public static <T> int indexOf(T[] array, int from, int to, T value)
+	{
+		for (int i = from; i < to; i++)
+		{
+			if (array[i].equals(value))
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
 	public static String toHex(short[] array)
 	{
 		if (array == null)
@@ -39,12 +132,15 @@ public class Extensions
 			return "";
 		}
 
-		StringBuilder sb = new StringBuilder(array.length * 4);
-		for (short s : array)
+		char[] chars = new char[array.length * 4];
+		for (int i = 0; i < array.length; i++)
 		{
-			sb.append(String.format("%04x", s & 0xFFFF));
+			for (int j = 0; j < 4; j++)
+			{
+				chars[i * 4 + j] = HEX_DIGITS[(array[i] >>> (12 - j * 4)) & 0xF];
+			}
 		}
-		return sb.toString();
+		return new String(chars);
 	}
 
 }
@@ -4,6 +4,8 @@ import com.google.inject.Provides;
 import io.huze.glamourer.glam.Glamourer;
 import io.huze.glamourer.item.DedupeItemManager;
 import io.huze.glamourer.item.ItemSheet;
+import io.huze.glamourer.item.ModelPaletteCache;
+import io.huze.glamourer.item.SearchService;
 import io.huze.glamourer.plate.PlateManager;
 import io.huze.glamourer.ui.MainPanel;
 import javax.inject.Inject;
@@ -11,6 +13,7 @@ import javax.swing.SwingUtilities;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.api.Client;
 import net.runelite.api.GameState;
+import net.runelite.api.events.GameStateChanged;
 import net.runelite.api.events.PostItemComposition;
 import net.runelite.client.callback.ClientThread;
 import net.runelite.client.config.ConfigManager;
@@ -38,19 +41,31 @@ public class Plugin extends net.runelite.client.plugins.Plugin
 	@Inject
 	ItemSheet itemSheet;
 	@Inject
+	ModelPaletteCache modelPaletteCache;
+	@Inject
 	DedupeItemManager ddItemManager;
 	@Inject
+	SearchService searchService;
+	@Inject
 	Glamourer glamourer;
 	@Inject
 	PlateManager plateManager;
 
 	NavigationButton navButton;
 	MainPanel panel;
+	// Bumped by each startUp and shutDown, so the startup callback of a stopped plugin gives up
+	private volatile int runGeneration;
 
 	@Override
 	protected void startUp()
 	{
+		int generation = ++runGeneration;
+		ddItemManager.readIndexFile();
 		clientThread.invokeLater(() -> {
+			if (generation != runGeneration)
+			{
+				return true;
+			}
 			if (client.getGameState().getState() < GameState.LOGIN_SCREEN.getState())
 			{
 				return false;
@@ -60,9 +75,15 @@ public class Plugin extends net.runelite.client.plugins.Plugin
 				return false;
 			}
 
-			ddItemManager.initializeOnClientThread();
+			// Time-sliced, so this callback is retried every frame until the dedupe index is complete
+			if (!ddItemManager.initializeOnClientThread())
+			{
+				return false;
+			}
+			searchService.buildIndex();
 			plateManager.loadPlates();
 			plateManager.applyAllPlates();
+			log.debug("Model palette cache: {}", modelPaletteCache);
 
 			panel = injector.getInstance(MainPanel.class);
 			setUpNavBar();
@@ -84,6 +105,28 @@ public class Plugin extends net.runelite.client.plugins.Plugin
 			{
 				SwingUtilities.invokeLater(() -> panel.onIconScaleChanged());
 			}
+			else if (key.equals(Config.KEY_MODEL_CACHE_SIZE))
+			{
+				modelPaletteCache.trim();
+			}
+		}
+	}
+
+	@Subscribe
+	public void onGameStateChanged(GameStateChanged event)
+	{
+		if (event.getGameState() == GameState.LOGGED_IN && ddItemManager.hasNewItems())
+		{
+			// New items may join groups that have glamours applied, and are checked against the raw compositions of
+			// existing groups, so take every glamour off while they do. Glamours left over once the plates are off
+			// are not on any plate, so they are put back by hand.
+			plateManager.revertAllPlates();
+			var glamours = glamourer.getActiveGlamours();
+			glamourer.revertAll();
+			ddItemManager.indexNewItems();
+			searchService.buildIndex();
+			plateManager.applyAllPlates();
+			glamours.forEach(glamourer::apply);
 		}
 	}
 
@@ -105,16 +148,19 @@ public class Plugin extends net.runelite.client.plugins.Plugin
 	@Override
 	protected void shutDown()
 	{
+		runGeneration++;
 		clientThread.invokeLater(() -> {
 			plateManager.revertAllPlates();
 			glamourer.revertAll();
 		});
+		modelPaletteCache.clear();
 		clientToolbar.removeNavigation(navButton);
 	}
 
 	@Subscribe(priority = Float.MAX_VALUE)
 	public void onPostItemComposition(PostItemComposition event)
 	{
+		ddItemManager.onPostItemComposition(event);
 		glamourer.onPostItemComposition(event);
 	}
 
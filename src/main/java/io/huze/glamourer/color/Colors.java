@@ -2,6 +2,7 @@ package io.huze.glamourer.color;
 
 import java.awt.Color;
 import java.awt.Graphics;
+import java.util.Arrays;
 import net.runelite.api.JagexColor;
 
 public class Colors
@@ -90,6 +91,28 @@ public class Colors
 		}
 	}
 
+	/**
+	 * @return a copy of the model colors with an item's color replacements applied, as the player sees them
+	 */
+	public static short[] recolor(short[] modelColors, short[] colorsToReplace, short[] colorsToReplaceWith)
+	{
+		var replacementColors = Arrays.copyOf(modelColors, modelColors.length);
+		if (colorsToReplace != null && colorsToReplaceWith != null)
+		{
+			for (int i = 0; i < modelColors.length; i++)
+			{
+				for (int j = 0; j < colorsToReplace.length; j++)
+				{
+					if (replacementColors[i] == colorsToReplace[j])
+					{
+						replacementColors[i] = colorsToReplaceWith[j];
+					}
+				}
+			}
+		}
+		return replacementColors;
+	}
+
 	/**
 	 * Calculates the perceptual color distance between two HSL colors.
 	 * <p>
@@ -2,17 +2,16 @@ package io.huze.glamourer.glam;
 
 import io.huze.glamourer.Extensions;
 import io.huze.glamourer.color.ColorReplacement;
+import io.huze.glamourer.color.Colors;
+import io.huze.glamourer.item.DedupeItemComposition;
 import io.huze.glamourer.item.DedupeKey;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashSet;
 import java.util.List;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.experimental.ExtensionMethod;
 import net.runelite.api.ItemComposition;
-import net.runelite.api.ModelData;
 
 @ExtensionMethod({java.util.Arrays.class, Extensions.class})
 @AllArgsConstructor(access = AccessLevel.PRIVATE)
@@ -56,38 +55,9 @@ class GlamState
 		);
 	}
 
-	public static GlamState initialize(final ItemComposition comp, Collection<ModelData> modelData)
+	public static GlamState initialize(final ItemComposition comp, short[] modelColors)
 	{
-		// Merge colors from inventory and equipment models.
-		var colorSet = new HashSet<Short>();
-		for (ModelData datum : modelData)
-		{
-			for (var color : datum.getFaceColors()) {
-				colorSet.add(color);
-			}
-		}
-		var modelColors = colorSet.toShortArray();
-		modelColors.sort();
-
-		var replacementColors = modelColors.deepCopy();
-		{
-			var colorsToReplace = comp.getColorToReplace();
-			var colorsToReplaceWith = comp.getColorToReplaceWith();
-
-			if (colorsToReplace != null && colorsToReplaceWith != null)
-			{
-				for (int i = 0; i < modelColors.length; i++)
-				{
-					for (int j = 0; j < colorsToReplace.length; j++)
-					{
-						if (replacementColors[i] == colorsToReplace[j])
-						{
-							replacementColors[i] = colorsToReplaceWith[j];
-						}
-					}
-				}
-			}
-		}
+		var replacementColors = Colors.recolor(modelColors, comp.getColorToReplace(), comp.getColorToReplaceWith());
 
 		return new GlamState(
 			comp.getInventoryModel(),
@@ -111,6 +81,11 @@ class GlamState
 		colorToReplaceWith[i] = color;
 	}
 
+	void applyTo(final DedupeItemComposition comp)
+	{
+		comp.applyState(this::applyTo);
+	}
+
 	void applyTo(final ItemComposition comp)
 	{
 		comp.setInventoryModel(model);
@@ -63,7 +63,7 @@ public class Glamour
 	{
 		this.itemComposition = itemComposition;
 		original = GlamState.backup(itemComposition);
-		staged = GlamState.initialize(itemComposition, sheet.getModels(itemComposition.getId()));
+		staged = GlamState.initialize(itemComposition, sheet.getPalette(itemComposition.getId()));
 	}
 
 	private AsyncBufferedImage loadImage(Client client, ClientThread clientThread, BooleanSupplier isCacheResetPending)
@@ -2,7 +2,10 @@ package io.huze.glamourer.glam;
 
 import io.huze.glamourer.item.DedupeItemManager;
 import io.huze.glamourer.item.ItemSheet;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
@@ -136,6 +139,14 @@ public class Glamourer
 		scheduleCacheReset();
 	}
 
+	/**
+	 * @return each applied glamour once, in no particular order
+	 */
+	public List<Glamour> getActiveGlamours()
+	{
+		return new ArrayList<>(new LinkedHashSet<>(activeGlamourMap.values()));
+	}
+
 	public void revertAll()
 	{
 		activeGlamourMap.values().forEach(Glamour::revert);
@@ -124,4 +124,39 @@ final class Category {
 	public static final short SailingBountyPart = 2295;
 	public static final short SailingSalvage = 2296;
 	public static final short SailingRelic = 2297;
+
+	static boolean isUncommon(short category) {
+		switch (category) {
+			case Category.DeadItems:
+			case Category.BoardGame1:
+			case Category.BoardGame2:
+			case Category.Banner:
+			case Category.Housing:
+			case Category.HouseRoom:
+			case Category.HouseFurniture:
+			case Category.BarbAssault1:
+			case Category.BarbAssault2:
+			case Category.BarbAssault3:
+			case Category.BarbAssault4:
+			case Category.ItemPack:
+			case Category.ReadableBook1:
+			case Category.ReadableBook2:
+			case Category.ReadableBook3:
+			case Category.BarbAssaultIcon:
+			case Category.SoulWarsIcon:
+			case Category.Xp:
+			case Category.ArmorSet:
+			case Category.HunterRumourPart:
+			case Category.CarvedPumpkin:
+			case Category.SailingBottle:
+			case Category.FishCrate:
+			case Category.SailingSchematic:
+			case Category.SailingLockboxKey:
+			case Category.SailingCourierCrate:
+			case Category.SailingBountyPart:
+			case Category.SailingRelic:
+				return true;
+		}
+		return false;
+	}
 }
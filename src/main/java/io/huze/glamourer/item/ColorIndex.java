@@ -0,0 +1,92 @@
+package io.huze.glamourer.item;
+
+import io.huze.glamourer.color.Colors;
+import java.util.Arrays;
+import java.util.BitSet;
+import net.runelite.api.JagexColor;
+
+/**
+ * Inverted index from the packed HSL colors of item palettes to the items using them. An exact color is a binary
+ * search, and colors within a distance are found by measuring each distinct indexed color once rather than every
+ * item's palette.
+ */
+final class ColorIndex
+{
+	private static final int COLOR_COUNT = 1 << 16;
+
+	// Distinct unsigned packed HSL colors, ascending
+	private final int[] colors;
+	// Item ids per index in colors, ascending
+	private final PostingLists postings;
+
+	private ColorIndex(int[] colors, PostingLists postings)
+	{
+		this.colors = colors;
+		this.postings = postings;
+	}
+
+	/**
+	 * @param itemIds  ascending item ids
+	 * @param palettes the sorted, distinct palette of each item, or null if it has none
+	 */
+	static ColorIndex build(int[] itemIds, short[][] palettes)
+	{
+		var used = new BitSet(COLOR_COUNT);
+		// Added in ascending item order
+		var occurrences = new PostingLists.Builder(itemIds.length * 8);
+		for (int i = 0; i < itemIds.length; i++)
+		{
+			if (palettes[i] != null)
+			{
+				for (short color : palettes[i])
+				{
+					used.set(color & 0xFFFF);
+					occurrences.add(color & 0xFFFF, itemIds[i]);
+				}
+			}
+		}
+
+		var colors = used.stream().toArray();
+		var rank = new int[COLOR_COUNT];
+		for (int i = 0; i < colors.length; i++)
+		{
+			rank[colors[i]] = i;
+		}
+		return new ColorIndex(colors, occurrences.build(colors.length, rank));
+	}
+
+	/**
+	 * @param hsl         packed HSL color
+	 * @param maxDistance furthest {@link Colors#calculateColorDistance} from hsl which still matches, 0 for only hsl
+	 * @return a new set of the ids of items whose palettes contain a matching color
+	 */
+	BitSet matching(int hsl, double maxDistance)
+	{
+		var result = new BitSet();
+		hsl &= 0xFFFF;
+		if (maxDistance <= 0)
+		{
+			int i = Arrays.binarySearch(colors, hsl);
+			if (i >= 0)
+			{
+				postings.addTo(result, i);
+			}
+			return result;
+		}
+
+		int hue = JagexColor.unpackHue((short) hsl);
+		int sat = JagexColor.unpackSaturation((short) hsl);
+		int lum = JagexColor.unpackLuminance((short) hsl);
+		for (int i = 0; i < colors.length; i++)
+		{
+			short color = (short) colors[i];
+			double distance = Colors.calculateColorDistance(hue, sat, lum,
+				JagexColor.unpackHue(color), JagexColor.unpackSaturation(color), JagexColor.unpackLuminance(color));
+			if (distance <= maxDistance)
+			{
+				postings.addTo(result, i);
+			}
+		}
+		return result;
+	}
+}
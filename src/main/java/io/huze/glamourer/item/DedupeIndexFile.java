@@ -0,0 +1,194 @@
+package io.huze.glamourer.item;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import net.runelite.api.ItemComposition;
+import net.runelite.client.RuneLite;
+import net.runelite.client.game.ItemManager;
+
+/**
+ * The dedupe groups from the last full scan of the item cache, persisted under the RuneLite directory so later
+ * sessions can skip the scan. The file carries a fingerprint of the item count and a sample of compositions of the
+ * cache it was built from. A game update which only adds items leaves the fingerprint of the items the file covers
+ * as it was, so only the new ones need indexing; any other change rebuilds it.
+ * <pre>
+ * int magic, int version, int itemCount, long fingerprint, int groupCount
+ * groupCount * (long hash, boolean hasKey, [UTF key], int bestId, int dupeCount, int[dupeCount] dupeIds)
+ * </pre>
+ * The whole file is deflate-compressed.
+ */
+@Slf4j
+final class DedupeIndexFile
+{
+	private static final int MAGIC = 0x474C4444; // "GLDD"
+	// Bump whenever DedupeKey or the grouping rules change, so stale files are rebuilt. Model family edits are
+	// covered by the fingerprint.
+	private static final int VERSION = 2;
+	private static final int SAMPLE_STRIDE = 97;
+	private static final File FILE = new File(new File(RuneLite.RUNELITE_DIR, "glamourer"), "dedupe_index.bin");
+
+	@Value
+	static class Group
+	{
+		long hash;
+		// Only set for groups whose key hash collides with another group's
+		String key;
+		int bestId;
+		// Empty when the group has a single item
+		int[] dupeIds;
+	}
+
+	@Value
+	static class Contents
+	{
+		int itemCount;
+		long fingerprint;
+		List<Group> groups;
+
+		boolean isFor(int itemCount, long fingerprint)
+		{
+			return this.itemCount == itemCount && this.fingerprint == fingerprint;
+		}
+	}
+
+	private DedupeIndexFile()
+	{
+	}
+
+	/**
+	 * Hashes every {@value #SAMPLE_STRIDE}th composition, plus the last one. Must be called on the client thread.
+	 */
+	static long fingerprint(ItemManager itemManager, int itemCount)
+	{
+		long hash = (VERSION * 31L + ModelFamilies.get().getHash()) * 31 + itemCount;
+		for (int id = 0; id < itemCount; id += SAMPLE_STRIDE)
+		{
+			hash = mix(hash, itemManager.getItemComposition(id));
+		}
+		if (itemCount > 0)
+		{
+			hash = mix(hash, itemManager.getItemComposition(itemCount - 1));
+		}
+		return hash;
+	}
+
+	private static long mix(long hash, ItemComposition comp)
+	{
+		hash = hash * 0x100000001B3L + Objects.hashCode(comp.getMembersName());
+		hash = hash * 0x100000001B3L + comp.getInventoryModel();
+		hash = hash * 0x100000001B3L + Arrays.hashCode(comp.getColorToReplaceWith());
+		hash = hash * 0x100000001B3L + Arrays.hashCode(comp.getTextureToReplaceWith());
+		return hash;
+	}
+
+	/**
+	 * Reads the whole file without touching the client, so it can run ahead of time off the client thread.
+	 *
+	 * @return the persisted groups with the item count and fingerprint they were built for, or null if there are none
+	 */
+	static Contents read()
+	{
+		if (!FILE.isFile())
+		{
+			return null;
+		}
+		try (var in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(Files.newInputStream(FILE.toPath())))))
+		{
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+			{
+				log.debug("Dedupe index is from another version, rebuilding");
+				return null;
+			}
+			int itemCount = in.readInt();
+			long fingerprint = in.readLong();
+			int groupCount = in.readInt();
+			var groups = new ArrayList<Group>(groupCount);
+			for (int i = 0; i < groupCount; i++)
+			{
+				long hash = in.readLong();
+				var key = in.readBoolean() ? in.readUTF() : null;
+				int bestId = in.readInt();
+				var dupeIds = new int[in.readInt()];
+				for (int j = 0; j < dupeIds.length; j++)
+				{
+					dupeIds[j] = in.readInt();
+				}
+				groups.add(new Group(hash, key, bestId, dupeIds));
+			}
+			return new Contents(itemCount, fingerprint, groups);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			log.warn("Failed to read dedupe index", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Replaces the file. Concurrent writes each go through their own temporary file, so neither can corrupt the other;
+	 * callers must order them so the newest index is moved in last.
+	 */
+	static void write(int itemCount, long fingerprint, List<Group> groups)
+	{
+		Path tmp = null;
+		try
+		{
+			Files.createDirectories(FILE.getParentFile().toPath());
+			// Write to a temporary file first so a crash can't leave a truncated index behind.
+			tmp = Files.createTempFile(FILE.getParentFile().toPath(), FILE.getName(), ".tmp");
+			try (var out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(Files.newOutputStream(tmp)))))
+			{
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(itemCount);
+				out.writeLong(fingerprint);
+				out.writeInt(groups.size());
+				for (var group : groups)
+				{
+					out.writeLong(group.hash);
+					out.writeBoolean(group.key != null);
+					if (group.key != null)
+					{
+						out.writeUTF(group.key);
+					}
+					out.writeInt(group.bestId);
+					out.writeInt(group.dupeIds.length);
+					for (int id : group.dupeIds)
+					{
+						out.writeInt(id);
+					}
+				}
+			}
+			Files.move(tmp, FILE.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			log.warn("Failed to write dedupe index", e);
+			if (tmp != null)
+			{
+				try
+				{
+					Files.deleteIfExists(tmp);
+				}
+				catch (IOException ignored)
+				{
+				}
+			}
+		}
+	}
+}
@@ -1,12 +1,11 @@
 package io.huze.glamourer.item;
 
 import io.huze.glamourer.Extensions;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Set;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
-import lombok.experimental.ExtensionMethod;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.api.ItemComposition;
 import net.runelite.api.IterableHashTable;
@@ -14,34 +13,130 @@ import net.runelite.api.Node;
 import net.runelite.client.game.ItemManager;
 
 @Slf4j
-@ExtensionMethod({Extensions.class})
 public class DedupeItemComposition implements ItemComposition
 {
 	private final ItemManager manager;
-	private final ItemComposition delegate;
-	private final int[] duplicates;
-
-	DedupeItemComposition(ItemManager manager, int bestId, Set<Integer> duplicateItems)
+	private final int bestId;
+	// Replaced when the client evicts the best item and loads it again
+	private ItemComposition delegate;
+	private int[] duplicates;
+	// Compositions of the duplicates, resolved on the first bulk apply and refreshed as the client reloads them
+	private ItemComposition[] resolved;
+	// The item's own recolors, kept from before the first state was applied through this composition
+	private boolean modified;
+	private short[] originalColorToReplace;
+	private short[] originalColorToReplaceWith;
+
+	/**
+	 * @param duplicateItems ids of every item in the dedupe group, shared rather than copied, or null for an item
+	 *                       without duplicates
+	 */
+	DedupeItemComposition(ItemManager manager, int bestId, @Nullable int[] duplicateItems)
 	{
 		this.manager = manager;
-		if (duplicateItems == null || duplicateItems.isEmpty())
-		{
-			duplicateItems = Set.of(bestId);
-		}
-		duplicates = duplicateItems.toIntArray();
+		this.bestId = bestId;
+		duplicates = duplicateItems == null || duplicateItems.length == 0 ? new int[]{bestId} : duplicateItems;
 		try
 		{
 			this.delegate = manager.getItemComposition(bestId);
 		}
 		catch (Exception e)
 		{
-			log.error("Error loading delegate: {} {} {}", bestId, duplicateItems, e.getMessage());
+			log.error("Error loading delegate: {} {} {}", bestId, Arrays.toString(duplicates), e.getMessage());
 			throw e;
 		}
 	}
 
+	/**
+	 * Adds newly indexed items to this group. Any state already applied to the group is not applied to them.
+	 */
+	void addDuplicates(int[] itemIds)
+	{
+		int length = duplicates.length;
+		duplicates = Arrays.copyOf(duplicates, length + itemIds.length);
+		System.arraycopy(itemIds, 0, duplicates, length, itemIds.length);
+		resolved = null;
+	}
+
+	int[] getDuplicateIds()
+	{
+		return duplicates;
+	}
+
+	/**
+	 * Applies a whole state to every duplicate in one pass, rather than resolving each duplicate once per setter.
+	 */
+	public void applyState(Consumer<ItemComposition> state)
+	{
+		backUpOriginal();
+		if (resolved == null)
+		{
+			resolved = new ItemComposition[duplicates.length];
+			for (int i = 0; i < duplicates.length; i++)
+			{
+				resolved[i] = manager.getItemComposition(duplicates[i]);
+			}
+		}
+		for (var composition : resolved)
+		{
+			state.accept(composition);
+		}
+	}
+
+	/**
+	 * Replaces the cached handles of an item the client has evicted and loaded again.
+	 */
+	void onReloaded(ItemComposition composition)
+	{
+		int id = composition.getId();
+		if (id == bestId)
+		{
+			delegate = composition;
+		}
+		if (resolved == null)
+		{
+			return;
+		}
+		for (int i = 0; i < duplicates.length; i++)
+		{
+			if (duplicates[i] == id)
+			{
+				resolved[i] = composition;
+			}
+		}
+	}
+
+	/**
+	 * @return the colors the item replaces in its models when no glamour is applied
+	 */
+	@Nullable
+	public short[] getOriginalColorToReplace()
+	{
+		return modified ? originalColorToReplace : delegate.getColorToReplace();
+	}
+
+	/**
+	 * @return the replacements of {@link #getOriginalColorToReplace()}
+	 */
+	@Nullable
+	public short[] getOriginalColorToReplaceWith()
+	{
+		return modified ? originalColorToReplaceWith : delegate.getColorToReplaceWith();
+	}
+
+	private void backUpOriginal()
+	{
+		if (!modified)
+		{
+			originalColorToReplace = Extensions.deepCopy(delegate.getColorToReplace());
+			originalColorToReplaceWith = Extensions.deepCopy(delegate.getColorToReplaceWith());
+			modified = true;
+		}
+	}
+
 	private void forEachDuplicate(Consumer<ItemComposition> action)
 	{
+		backUpOriginal();
 		for (int id : duplicates)
 		{
 			action.accept(manager.getItemComposition(id));
@@ -68,7 +163,7 @@ public class DedupeItemComposition implements ItemComposition
 
 	public Collection<Integer> getIds()
 	{
-		return java.util.Arrays.stream(duplicates)
+		return Arrays.stream(duplicates)
 			.boxed()
 			.collect(Collectors.toList());
 	}
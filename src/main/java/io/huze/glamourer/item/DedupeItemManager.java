@@ -1,20 +1,28 @@
 package io.huze.glamourer.item;
 
+import io.huze.glamourer.Extensions;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import lombok.Getter;
+import lombok.experimental.ExtensionMethod;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.api.Client;
 import net.runelite.api.ItemComposition;
+import net.runelite.api.events.PostItemComposition;
 import net.runelite.client.game.ItemManager;
 import net.runelite.client.util.AsyncBufferedImage;
 
 @Slf4j
 @Singleton
+@ExtensionMethod({Extensions.class})
 public class DedupeItemManager
 {
 	@Inject
@@ -22,21 +30,64 @@ public class DedupeItemManager
 	@Inject
 	Client client;
 
-	final Map<String, Integer> dedupeKeyToBestItemMap = new HashMap<>();
-	final Map<Integer, DedupeItemComposition> dedupeMap = new HashMap<>();
+	// Best item per DedupeKey hash, plus string-keyed entries for the rare keys whose hash collides with another's
+	final Map<Long, Integer> dedupeKeyToBestItemMap = new HashMap<>();
+	final Map<String, Integer> collidedKeyToBestItemMap = new HashMap<>();
+	// Shared composition per item id: one instance per dedupe group, and lazily created ones for unduplicated items
+	private DedupeItemComposition[] compositions = new DedupeItemComposition[0];
+
+	// The persisted index, read off the client thread ahead of initialization
+	private CompletableFuture<DedupeIndexFile.Contents> indexFile;
+	// The last index file write; each write waits for the one before it, so the newest index is the one left on disk
+	private CompletableFuture<Void> indexFileWrite = CompletableFuture.completedFuture(null);
+	private Scan scan;
+	@Getter
+	private boolean initialized;
+	// Item ids below this have been indexed
+	private int indexedItemCount;
+	// Metrics of the last full scan
+	@Getter
+	private long initDurationNanos;
+	@Getter
+	private long worstSliceNanos;
+	@Getter
+	private int sliceCount;
 
 	@Nonnull
 	public DedupeItemComposition getItemComposition(int itemId)
 	{
-		return dedupeMap.getOrDefault(itemId, new DedupeItemComposition(itemManager, itemId, null));
+		if (itemId < 0 || itemId >= compositions.length)
+		{
+			return new DedupeItemComposition(itemManager, itemId, null);
+		}
+		var composition = compositions[itemId];
+		if (composition == null)
+		{
+			composition = new DedupeItemComposition(itemManager, itemId, null);
+			compositions[itemId] = composition;
+		}
+		return composition;
 	}
 
+	/**
+	 * @param dedupeKey the string form of a {@link DedupeKey}
+	 */
 	public DedupeItemComposition getItemComposition(String dedupeKey)
 	{
-		return getItemComposition(dedupeKeyToBestItemMap.get(dedupeKey));
+		var key = DedupeKey.parse(dedupeKey).withModelFamily();
+		var bestId = collidedKeyToBestItemMap.isEmpty() ? null : collidedKeyToBestItemMap.get(key.toString());
+		if (bestId == null)
+		{
+			bestId = dedupeKeyToBestItemMap.get(key.hash());
+		}
+		if (bestId == null)
+		{
+			throw new IllegalArgumentException("Unknown dedupe key: " + dedupeKey);
+		}
+		return getItemComposition(bestId);
 	}
 
-	private boolean filterItem(ItemComposition itemComposition)
+	private static boolean filterItem(ItemComposition itemComposition)
 	{
 		var name = itemComposition.getMembersName();
 		return name == null ||
@@ -44,6 +95,19 @@ public class DedupeItemManager
 			name.equalsIgnoreCase("null");
 	}
 
+	/**
+	 * Keeps the compositions cached for bulk applies current when the client loads an item again.
+	 */
+	public void onPostItemComposition(PostItemComposition event)
+	{
+		var loaded = event.getItemComposition();
+		int itemId = loaded.getId();
+		if (itemId >= 0 && itemId < compositions.length && compositions[itemId] != null)
+		{
+			compositions[itemId].onReloaded(loaded);
+		}
+	}
+
 	public int canonicalize(int id)
 	{
 		return itemManager.canonicalize(id);
@@ -54,60 +118,375 @@ public class DedupeItemManager
 		return itemManager.getImage(id);
 	}
 
-	private static class DupeItem
+	/**
+	 * Starts reading the persisted index in the background, so initialization does not wait on the disk. Call on the
+	 * client thread, or before initialization is first scheduled on it.
+	 */
+	public void readIndexFile()
 	{
-		ItemComposition best;
-		Set<Integer> dupeIds;
+		if (indexFile == null)
+		{
+			indexFile = CompletableFuture.supplyAsync(DedupeIndexFile::read);
+		}
+	}
 
-		DupeItem(ItemComposition composition)
+	/**
+	 * Runs one step of initialization. Call on the client thread once per frame until it returns true.
+	 * <p>
+	 * The persisted index is read off the client thread, and only its fingerprint is checked here. If it is current,
+	 * or only lacks items added since, it is used. Otherwise the raw fields of every item are copied in slices bounded
+	 * by {@link TimeSlice#BUDGET_NANOS}. Keys are then built and grouped on the common fork-join pool, and the groups
+	 * are published back on the client thread.
+	 */
+	public boolean initializeOnClientThread()
+	{
+		long sliceStart = System.nanoTime();
+		if (scan == null)
 		{
-			best = composition;
-			dupeIds = new HashSet<>();
+			initialized = false;
+			readIndexFile();
+			if (!indexFile.isDone())
+			{
+				return false;
+			}
+			var contents = indexFile.join();
+			indexFile = null;
+			int itemCount = client.getItemCount();
+			long fingerprint = DedupeIndexFile.fingerprint(itemManager, itemCount);
+			if (contents != null && contents.isFor(itemCount, fingerprint))
+			{
+				publish(contents.getGroups(), itemCount);
+				initialized = true;
+				log.debug("DedupeItemManager loaded cached index in {}ms", (System.nanoTime() - sliceStart) / 1_000_000);
+				return true;
+			}
+			// A game update which only added items leaves the indexed ones as they were, so only the new ones are
+			// indexed. Nothing is glamoured yet, as indexNewItems needs.
+			int storedCount = contents == null ? 0 : contents.getItemCount();
+			if (storedCount > 0 && storedCount < itemCount
+				&& contents.isFor(storedCount, DedupeIndexFile.fingerprint(itemManager, storedCount)))
+			{
+				publish(contents.getGroups(), storedCount);
+				initialized = true;
+				indexNewItems();
+				log.debug("DedupeItemManager loaded cached index of {} items and indexed {} new ones in {}ms",
+					storedCount, itemCount - storedCount, (System.nanoTime() - sliceStart) / 1_000_000);
+				return true;
+			}
+			if (contents != null)
+			{
+				log.debug("Dedupe index is stale, rebuilding");
+			}
+			scan = new Scan(0, itemCount, fingerprint, sliceStart);
 		}
 
-		void add(ItemComposition item)
+		var scan = this.scan;
+		if (scan.groups == null)
 		{
-			dupeIds.add(item.getId());
-			var name = item.getMembersName();
-			var bestName = best.getMembersName();
-			var nameIsShorter = name.length() < bestName.length();
-			var nameIsGreater = name.length() == bestName.length() && name.compareTo(bestName) > 0;
-			if (nameIsShorter || nameIsGreater)
+			if (scan.slice.run(id -> scan.copy(itemManager.getItemComposition(id))))
 			{
-				best = item;
+				scan.groups = CompletableFuture.supplyAsync(scan::group);
 			}
+			scan.recordSlice(sliceStart);
+			return false;
+		}
+		if (!scan.groups.isDone())
+		{
+			return false;
 		}
+
+		var groups = scan.groups.join();
+		publish(groups, scan.itemCount);
+		scan.recordSlice(sliceStart);
+
+		this.scan = null;
+		initialized = true;
+		initDurationNanos = System.nanoTime() - scan.startTime;
+		worstSliceNanos = scan.worstSliceNanos;
+		sliceCount = scan.sliceCount;
+		log.debug("DedupeItemManager initialization took {}ms over {} slices, worst slice {}ms, grouping {}ms",
+			initDurationNanos / 1_000_000, sliceCount, worstSliceNanos / 1_000_000.0, scan.groupNanos / 1_000_000);
+
+		writeIndexFile(scan.itemCount, scan.fingerprint, groups);
+		return true;
 	}
 
-	public void initializeOnClientThread()
+	/**
+	 * @return whether the client has items the index has not seen, e.g. after a game update. Items added while the
+	 * client was closed are indexed during initialization.
+	 */
+	public boolean hasNewItems()
+	{
+		return initialized && client.getItemCount() > indexedItemCount;
+	}
+
+	/**
+	 * Indexes only the items added since the index was built, merging them into the existing groups. Groups change
+	 * membership in place, so this must be called on the client thread with no glamours applied.
+	 */
+	public void indexNewItems()
 	{
 		long startTime = System.nanoTime();
-		Map<String, DupeItem> dupeItemMap = new HashMap<>();
-		for (int i = 0; i < client.getItemCount(); i++)
+		int itemCount = client.getItemCount();
+		int firstNewId = indexedItemCount;
+		var newItems = new Scan(firstNewId, itemCount, DedupeIndexFile.fingerprint(itemManager, itemCount), startTime);
+		for (int id = firstNewId; id < itemCount; id++)
 		{
-			var itemComposition = itemManager.getItemComposition(i);
-			if (filterItem(itemComposition))
+			newItems.copy(itemManager.getItemComposition(id));
+		}
+
+		compositions = Arrays.copyOf(compositions, itemCount);
+		indexedItemCount = itemCount;
+		// Few enough items to group right here
+		for (var group : newItems.group())
+		{
+			var newIds = group.getDupeIds().length > 0 ? group.getDupeIds() : new int[]{group.getBestId()};
+			int i = group.getBestId() - firstNewId;
+			var key = DedupeKey.from(newItems.names[i], newItems.models[i], newItems.colors[i], newItems.textures[i]);
+			var bestId = findBestItem(key);
+			if (bestId == null)
+			{
+				index(group, itemCount);
+				continue;
+			}
+			if (bestId < 0)
 			{
+				// The key hash is taken by an existing group with a different key
+				index(new DedupeIndexFile.Group(0, key.toString(), group.getBestId(), group.getDupeIds()), itemCount);
 				continue;
 			}
-			var key = DedupeKey.of(itemComposition);
-			dupeItemMap.computeIfAbsent(key, k -> new DupeItem(itemComposition)).add(itemComposition);
+			var composition = getItemComposition(bestId);
+			composition.addDuplicates(newIds);
+			for (int itemId : newIds)
+			{
+				compositions[itemId] = composition;
+			}
 		}
 
-		dedupeMap.clear();
-		for (var dupeEntry : dupeItemMap.values())
+		var groups = snapshotGroups();
+		log.debug("DedupeItemManager indexed items {}-{} in {}ms",
+			firstNewId, itemCount - 1, (System.nanoTime() - startTime) / 1_000_000);
+		writeIndexFile(itemCount, newItems.fingerprint, groups);
+	}
+
+	private void writeIndexFile(int itemCount, long fingerprint, List<DedupeIndexFile.Group> groups)
+	{
+		indexFileWrite = indexFileWrite.thenRunAsync(() -> DedupeIndexFile.write(itemCount, fingerprint, groups));
+	}
+
+	/**
+	 * Finds the existing group of a key. Groups do not keep their keys once built, so a group found by hash is
+	 * verified against the key of its best item, whose composition is unmodified while no glamours are applied.
+	 *
+	 * @return the group's best item, null if no group has the key or its hash, or -1 if only its hash is taken
+	 */
+	private Integer findBestItem(DedupeKey key)
+	{
+		var bestId = collidedKeyToBestItemMap.isEmpty() ? null : collidedKeyToBestItemMap.get(key.toString());
+		if (bestId != null)
+		{
+			return bestId;
+		}
+		bestId = dedupeKeyToBestItemMap.get(key.hash());
+		if (bestId == null)
 		{
-			var bestId = dupeEntry.best.getId();
-			dedupeKeyToBestItemMap.put(DedupeKey.of(dupeEntry.best), bestId);
-			var dupeIds = dupeEntry.dupeIds;
-			if (dupeIds.size() > 1)
+			return null;
+		}
+		var best = itemManager.getItemComposition(bestId);
+		return key.matches(best.getMembersName(), best.getInventoryModel(), best.getColorToReplaceWith(),
+			best.getTextureToReplaceWith()) ? bestId : -1;
+	}
+
+	// The current groups, for persisting
+	private List<DedupeIndexFile.Group> snapshotGroups()
+	{
+		var groups = new ArrayList<DedupeIndexFile.Group>(dedupeKeyToBestItemMap.size() + collidedKeyToBestItemMap.size());
+		for (var entry : dedupeKeyToBestItemMap.entrySet())
+		{
+			groups.add(new DedupeIndexFile.Group(entry.getKey(), null, entry.getValue(), getDupeIds(entry.getValue())));
+		}
+		for (var entry : collidedKeyToBestItemMap.entrySet())
+		{
+			groups.add(new DedupeIndexFile.Group(0, entry.getKey(), entry.getValue(), getDupeIds(entry.getValue())));
+		}
+		return groups;
+	}
+
+	private int[] getDupeIds(int bestId)
+	{
+		var composition = bestId < compositions.length ? compositions[bestId] : null;
+		return composition == null || composition.getDuplicateIds().length < 2 ? new int[0] : composition.getDuplicateIds();
+	}
+
+	private void publish(List<DedupeIndexFile.Group> groups, int itemCount)
+	{
+		dedupeKeyToBestItemMap.clear();
+		collidedKeyToBestItemMap.clear();
+		compositions = new DedupeItemComposition[itemCount];
+		indexedItemCount = itemCount;
+		for (var group : groups)
+		{
+			index(group, itemCount);
+		}
+	}
+
+	private void index(DedupeIndexFile.Group group, int itemCount)
+	{
+		if (group.getKey() == null)
+		{
+			dedupeKeyToBestItemMap.put(group.getHash(), group.getBestId());
+		}
+		else
+		{
+			collidedKeyToBestItemMap.put(group.getKey(), group.getBestId());
+		}
+		var dupeIds = group.getDupeIds();
+		if (dupeIds.length > 1)
+		{
+			var composition = new DedupeItemComposition(itemManager, group.getBestId(), dupeIds);
+			for (int itemId : dupeIds)
 			{
-				for (var itemId : dupeIds)
+				if (itemId < itemCount)
 				{
-					dedupeMap.put(itemId, new DedupeItemComposition(itemManager, bestId, dupeIds));
+					compositions[itemId] = composition;
 				}
 			}
 		}
-		log.debug("DedupeItemManager initialization took {}ms", (System.nanoTime() - startTime) / 1_000_000);
+	}
+
+	// State of a scan, carried between client thread callbacks. Raw fields are copied on the client thread, and only
+	// group() runs off it.
+	private static class Scan
+	{
+		final int firstId;
+		final int itemCount;
+		final long fingerprint;
+		final long startTime;
+		// Raw fields by item id - firstId. Names are null for items which are not indexed.
+		final String[] names;
+		final int[] models;
+		final short[][] colors;
+		final short[][] textures;
+		final TimeSlice slice;
+		int sliceCount;
+		long worstSliceNanos;
+		long groupNanos;
+		CompletableFuture<List<DedupeIndexFile.Group>> groups;
+
+		Scan(int firstId, int itemCount, long fingerprint, long startTime)
+		{
+			this.firstId = firstId;
+			this.itemCount = itemCount;
+			this.fingerprint = fingerprint;
+			this.startTime = startTime;
+			slice = new TimeSlice(firstId, itemCount, false);
+			int size = itemCount - firstId;
+			names = new String[size];
+			models = new int[size];
+			colors = new short[size][];
+			textures = new short[size][];
+		}
+
+		void copy(ItemComposition itemComposition)
+		{
+			if (filterItem(itemComposition))
+			{
+				return;
+			}
+			int i = itemComposition.getId() - firstId;
+			names[i] = itemComposition.getMembersName();
+			models[i] = itemComposition.getInventoryModel();
+			colors[i] = itemComposition.getColorToReplaceWith().deepCopy();
+			textures[i] = itemComposition.getTextureToReplaceWith().deepCopy();
+		}
+
+		void recordSlice(long sliceStart)
+		{
+			sliceCount++;
+			worstSliceNanos = Math.max(worstSliceNanos, System.nanoTime() - sliceStart);
+		}
+
+		/**
+		 * Builds keys in parallel and groups the copied items by them. Safe to run off the client thread.
+		 */
+		List<DedupeIndexFile.Group> group()
+		{
+			long start = System.nanoTime();
+			var hashes = new long[names.length];
+			IntStream.range(0, names.length).parallel().forEach(i -> {
+				if (names[i] != null)
+				{
+					hashes[i] = DedupeKey.hashOf(names[i], models[i], colors[i], textures[i]);
+				}
+			});
+
+			Map<Long, DupeItem> dupeItemMap = new HashMap<>();
+			// Groups whose key hash was already taken by a different key
+			Map<String, DupeItem> collidedItemMap = new HashMap<>();
+			for (int i = 0; i < names.length; i++)
+			{
+				if (names[i] == null)
+				{
+					continue;
+				}
+				int item = i;
+				var dupeItem = dupeItemMap.computeIfAbsent(hashes[i], k -> new DupeItem(item));
+				if (!dupeItem.key.matches(names[i], models[i], colors[i], textures[i]))
+				{
+					var key = DedupeKey.from(names[i], models[i], colors[i], textures[i]).toString();
+					dupeItem = collidedItemMap.computeIfAbsent(key, k -> new DupeItem(item));
+				}
+				dupeItem.add(i);
+			}
+
+			var groups = new ArrayList<DedupeIndexFile.Group>(dupeItemMap.size() + collidedItemMap.size());
+			for (var entry : dupeItemMap.entrySet())
+			{
+				groups.add(entry.getValue().toGroup(entry.getKey(), null));
+			}
+			for (var entry : collidedItemMap.entrySet())
+			{
+				groups.add(entry.getValue().toGroup(0, entry.getKey()));
+			}
+			groupNanos = System.nanoTime() - start;
+			return groups;
+		}
+
+		private class DupeItem
+		{
+			final DedupeKey key;
+			int best;
+			int[] members = new int[1];
+			int memberCount;
+
+			DupeItem(int first)
+			{
+				key = DedupeKey.from(names[first], models[first], colors[first], textures[first]);
+				best = first;
+			}
+
+			void add(int item)
+			{
+				if (memberCount == members.length)
+				{
+					members = Arrays.copyOf(members, memberCount * 2);
+				}
+				members[memberCount++] = item + firstId;
+				var name = names[item];
+				var bestName = names[best];
+				var nameIsShorter = name.length() < bestName.length();
+				var nameIsGreater = name.length() == bestName.length() && name.compareTo(bestName) > 0;
+				if (nameIsShorter || nameIsGreater)
+				{
+					best = item;
+				}
+			}
+
+			DedupeIndexFile.Group toGroup(long hash, String key)
+			{
+				var dupeIds = memberCount > 1 ? Arrays.copyOf(members, memberCount) : new int[0];
+				return new DedupeIndexFile.Group(hash, key, best + firstId, dupeIds);
+			}
+		}
 	}
 }
@@ -1,11 +1,18 @@
 package io.huze.glamourer.item;
 
 import io.huze.glamourer.Extensions;
+import java.util.Arrays;
 import java.util.regex.Pattern;
 import lombok.Value;
 import lombok.experimental.ExtensionMethod;
 import net.runelite.api.ItemComposition;
 
+/**
+ * The fields an item is deduped on: its name without parenthesised suffixes or non-letters, its model family from
+ * {@link ModelFamilies}, and its recolor and retexture arrays. Items dedupe together only when all of these match
+ * exactly. Two items whose different replacement arrays render the same palette stay in separate groups, because the
+ * string form persisted in saved glamours has no room for a palette hash.
+ */
 @Value
 @ExtensionMethod({Extensions.class})
 public class DedupeKey implements Comparable<DedupeKey>
@@ -15,13 +22,144 @@ public class DedupeKey implements Comparable<DedupeKey>
 	short[] colorReplace;
 	short[] textureReplace;
 
+	/**
+	 * @return the stable string form of the item's key, as persisted in {@code GlamourData.itemKey}
+	 */
 	public static String of(ItemComposition itemComposition)
 	{
-		return new DedupeKey(
-			stripName(itemComposition.getMembersName()),
-			similarModelId(itemComposition.getInventoryModel()),
+		return from(itemComposition).toString();
+	}
+
+	static DedupeKey from(ItemComposition itemComposition)
+	{
+		return from(itemComposition.getMembersName(),
+			itemComposition.getInventoryModel(),
 			itemComposition.getColorToReplaceWith(),
-			itemComposition.getTextureToReplaceWith()).toString();
+			itemComposition.getTextureToReplaceWith());
+	}
+
+	/**
+	 * Builds the key of an item from its raw composition fields.
+	 */
+	static DedupeKey from(String name, int inventoryModel, short[] colorToReplaceWith, short[] textureToReplaceWith)
+	{
+		return new DedupeKey(stripName(name), similarModelId(inventoryModel), colorToReplaceWith, textureToReplaceWith);
+	}
+
+	/**
+	 * Parses the string form produced by {@link #toString()}.
+	 */
+	static DedupeKey parse(String key)
+	{
+		String[] parts = key.split(":", -1);
+		if (parts.length != 4)
+		{
+			throw new IllegalArgumentException("Malformed dedupe key: " + key);
+		}
+		try
+		{
+			return new DedupeKey(parts[0], Integer.parseInt(parts[1]), parseHex(parts[2]), parseHex(parts[3]));
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IllegalArgumentException("Malformed dedupe key: " + key, e);
+		}
+	}
+
+	private static short[] parseHex(String hex)
+	{
+		if (hex.length() % 4 != 0)
+		{
+			throw new NumberFormatException("Expected 4 hex digits per value: " + hex);
+		}
+		var array = new short[hex.length() / 4];
+		for (int i = 0; i < array.length; i++)
+		{
+			array[i] = (short) Integer.parseInt(hex, i * 4, i * 4 + 4, 16);
+		}
+		return array;
+	}
+
+	/**
+	 * Hashes an item's key from its raw composition fields without building it. Equal to the {@link #hash()} of
+	 * {@link #from(String, int, short[], short[])}; distinct keys can collide, so callers must verify with
+	 * {@link #matches}.
+	 */
+	static long hashOf(String name, int inventoryModel, short[] colorToReplaceWith, short[] textureToReplaceWith)
+	{
+		return hash(strippedNameHash(name), similarModelId(inventoryModel), colorToReplaceWith, textureToReplaceWith);
+	}
+
+	/**
+	 * @return this key with its model mapped to its family's, for keys saved before the model joined a family
+	 */
+	DedupeKey withModelFamily()
+	{
+		int familyModelId = similarModelId(modelId);
+		return familyModelId == modelId ? this : new DedupeKey(strippedName, familyModelId, colorReplace, textureReplace);
+	}
+
+	long hash()
+	{
+		return hash(strippedName.hashCode(), modelId, colorReplace, textureReplace);
+	}
+
+	private static long hash(int nameHash, int modelId, short[] colorReplace, short[] textureReplace)
+	{
+		long h = nameHash;
+		h = h * 0x100000001B3L + modelId;
+		h = h * 0x100000001B3L + hashShorts(colorReplace);
+		h = h * 0x100000001B3L + hashShorts(textureReplace);
+		// Murmur3 finalizer, so the fields spread over all 64 bits
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	// Null and empty arrays have the same string form, so they must hash alike too.
+	private static int hashShorts(short[] array)
+	{
+		return array == null ? 1 : Arrays.hashCode(array);
+	}
+
+	/**
+	 * @return whether an item with these raw composition fields has this key
+	 */
+	boolean matches(String name, int inventoryModel, short[] colorToReplaceWith, short[] textureToReplaceWith)
+	{
+		return modelId == similarModelId(inventoryModel)
+			&& sameShorts(colorReplace, colorToReplaceWith)
+			&& sameShorts(textureReplace, textureToReplaceWith)
+			&& sameStrippedName(name);
+	}
+
+	private static boolean sameShorts(short[] a, short[] b)
+	{
+		return Arrays.equals(a == null ? EMPTY : a, b == null ? EMPTY : b);
+	}
+
+	private boolean sameStrippedName(String name)
+	{
+		int parenStart = name.indexOf('(');
+		int parenEnd = name.lastIndexOf(')');
+		int k = 0;
+		for (int i = 0; i < name.length(); i++)
+		{
+			if (parenStart >= 0 && i == parenStart && parenEnd > parenStart)
+			{
+				i = parenEnd;
+				continue;
+			}
+			char c = name.charAt(i);
+			if (isLetter(c) && (k >= strippedName.length() || strippedName.charAt(k++) != c))
+			{
+				return false;
+			}
+		}
+		return k == strippedName.length();
 	}
 
 	@Override
@@ -33,14 +171,11 @@ public class DedupeKey implements Comparable<DedupeKey>
 	@Override
 	public String toString()
 	{
-		return String.format("%s:%d:%s:%s",
-			strippedName,
-			modelId,
-			colorReplace.toHex(),
-			textureReplace.toHex());
+		return strippedName + ':' + modelId + ':' + colorReplace.toHex() + ':' + textureReplace.toHex();
 	}
 
-	private static final Pattern PAREN_REPLACE = Pattern.compile("\\(.*\\)");
+	private static final Pattern PAREN_REPLACE = Pattern.compile("\\(.*\\)", Pattern.DOTALL);
+	private static final short[] EMPTY = new short[0];
 
 	public static String stripName(String name)
 	{
@@ -48,29 +183,36 @@ public class DedupeKey implements Comparable<DedupeKey>
 		return noParens.replaceAll("[^A-Za-z]+", "");
 	}
 
-	private static int similarModelId(int modelId)
+	// Same as stripName(name).hashCode(), without the regexes or intermediate strings.
+	private static int strippedNameHash(String name)
 	{
-		switch (modelId)
+		// The greedy parenthesis pattern removes everything from the first '(' to the last ')' after it.
+		int parenStart = name.indexOf('(');
+		int parenEnd = name.lastIndexOf(')');
+		int h = 0;
+		for (int i = 0; i < name.length(); i++)
 		{
-			// Normal
-			case 2621:
-			case 2384:
-			case 2697:
-				return 2789;
-			// Divine
-			case 37966:
-			case 37975:
-			case 37944:
-				return 37951;
-			// CoX
-			case 32768:
-			case 32766:
-			case 32772:
-				return 32527;
-			// Barb Mix
-			case 26825:
-				return 26826;
+			if (parenStart >= 0 && i == parenStart && parenEnd > parenStart)
+			{
+				i = parenEnd;
+				continue;
+			}
+			char c = name.charAt(i);
+			if (isLetter(c))
+			{
+				h = 31 * h + c;
+			}
 		}
-		return modelId;
+		return h;
+	}
+
+	private static boolean isLetter(char c)
+	{
+		return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+	}
+
+	private static int similarModelId(int modelId)
+	{
+		return ModelFamilies.get().representative(modelId);
 	}
 }
@@ -0,0 +1,314 @@
+package io.huze.glamourer.item;
+
+import io.huze.glamourer.Extensions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.Value;
+
+/**
+ * Typo-tolerant item name search. Names are compared with their whitespace removed, so "runeplate" finds
+ * "Rune platebody", and a query matches anywhere in a name within a few edits, so "dragn" finds "Dragon dagger".
+ * Candidates are picked from posting lists of the names' bigrams and trigrams, and only those are checked with the
+ * bit-parallel edit distance of Myers (1999).
+ */
+final class FuzzyIndex
+{
+	// The matcher keeps one bit per query character
+	private static final int MAX_QUERY_LENGTH = Long.SIZE;
+	private static final int ASCII = 128;
+
+	@Value
+	static class Match
+	{
+		int itemId;
+		int distance;
+	}
+
+	private final int[] itemIds;
+	// Lowercase names without whitespace, per index in itemIds
+	private final String[] names;
+	private final Grams bigrams;
+	private final Grams trigrams;
+
+	private FuzzyIndex(int[] itemIds, String[] names, Grams bigrams, Grams trigrams)
+	{
+		this.itemIds = itemIds;
+		this.names = names;
+		this.bigrams = bigrams;
+		this.trigrams = trigrams;
+	}
+
+	// The names containing each distinct substring of one length
+	private static final class Grams
+	{
+		final int length;
+		// Sorted packed substrings, see gram
+		final long[] grams;
+		// Indexes into names per index in grams, ascending
+		final PostingLists postings;
+
+		Grams(int length, String[] names)
+		{
+			this.length = length;
+			Map<Long, Integer> gramIds = new HashMap<>();
+			// Added in ascending name order
+			var occurrences = new PostingLists.Builder(names.length * 8);
+			var nameGrams = new long[16];
+			for (int i = 0; i < names.length; i++)
+			{
+				int count = 0;
+				for (int j = 0; j + length <= names[i].length(); j++)
+				{
+					long gram = gram(names[i], j, length);
+					if (Extensions.indexOf(nameGrams, 0, count, gram) >= 0)
+					{
+						continue;
+					}
+					if (count == nameGrams.length)
+					{
+						nameGrams = Arrays.copyOf(nameGrams, count * 2);
+					}
+					nameGrams[count++] = gram;
+					occurrences.add(gramIds.computeIfAbsent(gram, g -> gramIds.size()), i);
+				}
+			}
+
+			grams = new long[gramIds.size()];
+			for (var entry : gramIds.entrySet())
+			{
+				grams[entry.getValue()] = entry.getKey();
+			}
+			Arrays.sort(grams);
+			var rank = new int[grams.length];
+			for (int i = 0; i < grams.length; i++)
+			{
+				rank[gramIds.get(grams[i])] = i;
+			}
+			postings = occurrences.build(grams.length, rank);
+		}
+
+		/**
+		 * @return the index of the gram, or a negative number if no name contains it
+		 */
+		int find(long gram)
+		{
+			return Arrays.binarySearch(grams, gram);
+		}
+	}
+
+	/**
+	 * @param itemIds ascending item ids
+	 * @param names   the name of each item
+	 */
+	static FuzzyIndex build(int[] itemIds, String[] names)
+	{
+		var compactNames = new String[itemIds.length];
+		for (int i = 0; i < itemIds.length; i++)
+		{
+			compactNames[i] = compact(names[i]);
+		}
+		return new FuzzyIndex(itemIds, compactNames, new Grams(2, compactNames), new Grams(3, compactNames));
+	}
+
+	static String compact(String name)
+	{
+		var sb = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++)
+		{
+			char c = name.charAt(i);
+			if (!Character.isWhitespace(c))
+			{
+				sb.append(Character.toLowerCase(c));
+			}
+		}
+		return sb.toString();
+	}
+
+	// Edits allowed for a query of this many characters, short queries have to match exactly
+	static int maxEdits(int length)
+	{
+		return length < 4 ? 0 : length < 8 ? 1 : 2;
+	}
+
+	// The chars of s from start, 16 bits each
+	private static long gram(String s, int start, int length)
+	{
+		long gram = 0;
+		for (int i = start; i < start + length; i++)
+		{
+			gram = gram << 16 | s.charAt(i);
+		}
+		return gram;
+	}
+
+	/**
+	 * @param query the search text, whitespace is ignored
+	 * @return the items whose name contains the query within {@link #maxEdits} edits, in ascending id order
+	 */
+	List<Match> matching(String query)
+	{
+		var pattern = compact(query);
+		int length = pattern.length();
+		List<Match> matches = new ArrayList<>();
+		if (length < 3 || length > MAX_QUERY_LENGTH)
+		{
+			return matches;
+		}
+		int maxEdits = maxEdits(length);
+
+		var asciiMasks = new long[ASCII];
+		for (int i = 0; i < length; i++)
+		{
+			char c = pattern.charAt(i);
+			if (c < ASCII)
+			{
+				asciiMasks[c] |= 1L << i;
+			}
+		}
+		var candidates = candidates(pattern, maxEdits);
+		for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1))
+		{
+			int distance = substringDistance(pattern, asciiMasks, names[i], maxEdits);
+			if (distance <= maxEdits)
+			{
+				matches.add(new Match(itemIds[i], distance));
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * @param pattern a compacted query of 3 to {@value #MAX_QUERY_LENGTH} characters
+	 * @return the indexes of the names which may contain the pattern within maxEdits edits
+	 */
+	BitSet candidates(String pattern, int maxEdits)
+	{
+		// Each edit breaks at most three of the query's trigrams, so a match shares all but 3 * maxEdits of them
+		var queryTrigrams = distinctGrams(pattern, 0, pattern.length(), 3);
+		int minShared = queryTrigrams.length - 3 * maxEdits;
+		if (minShared > 0)
+		{
+			return namesSharing(trigrams, queryTrigrams, minShared);
+		}
+
+		// Too short for that, but the edits split the query into maxEdits + 1 pieces leave at least one piece whole,
+		// so a match contains every bigram or trigram of one of the pieces
+		var candidates = new BitSet(names.length);
+		int pieces = maxEdits + 1;
+		for (int piece = 0; piece < pieces; piece++)
+		{
+			int start = pattern.length() * piece / pieces;
+			int end = pattern.length() * (piece + 1) / pieces;
+			var grams = end - start >= 3 ? trigrams : bigrams;
+			var pieceGrams = distinctGrams(pattern, start, end, grams.length);
+			candidates.or(namesSharing(grams, pieceGrams, pieceGrams.length));
+		}
+		return candidates;
+	}
+
+	private static long[] distinctGrams(String s, int start, int end, int length)
+	{
+		var grams = new long[end - start - length + 1];
+		int count = 0;
+		for (int i = start; i + length <= end; i++)
+		{
+			long gram = gram(s, i, length);
+			if (Extensions.indexOf(grams, 0, count, gram) < 0)
+			{
+				grams[count++] = gram;
+			}
+		}
+		return Arrays.copyOf(grams, count);
+	}
+
+	// The names containing at least minShared of the distinct query grams
+	private BitSet namesSharing(Grams grams, long[] queryGrams, int minShared)
+	{
+		var result = new BitSet(names.length);
+		var shared = new byte[names.length];
+		for (long queryGram : queryGrams)
+		{
+			int g = grams.find(queryGram);
+			if (g < 0)
+			{
+				continue;
+			}
+			var postings = grams.postings;
+			for (int p = postings.start(g); p < postings.end(g); p++)
+			{
+				int name = postings.get(p);
+				if (++shared[name] == minShared)
+				{
+					result.set(name);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Fewest edits turning the pattern into any substring of the text, found with one bit-vector step per text
+	 * character. Stops early once the distance is 0, or once it can no longer come under the limit.
+	 *
+	 * @return the distance, or more than limit
+	 */
+	private static int substringDistance(String pattern, long[] asciiMasks, String text, int limit)
+	{
+		int length = pattern.length();
+		long last = 1L << (length - 1);
+		// Vertical deltas of the last column: +1 and -1 bits
+		long pv = -1;
+		long mv = 0;
+		int score = length;
+		int best = length;
+		for (int i = 0; i < text.length(); i++)
+		{
+			long eq = mask(pattern, asciiMasks, text.charAt(i));
+			long xv = eq | mv;
+			long xh = (((eq & pv) + pv) ^ pv) | eq;
+			long ph = mv | ~(xh | pv);
+			long mh = pv & xh;
+			if ((ph & last) != 0)
+			{
+				score++;
+			}
+			else if ((mh & last) != 0)
+			{
+				score--;
+			}
+			// A match may start anywhere in the text, so the top row stays 0
+			ph <<= 1;
+			mh <<= 1;
+			pv = mh | ~(xv | ph);
+			mv = ph & xv;
+			best = Math.min(best, score);
+			// The score drops by at most one per remaining character
+			if (best == 0 || score - (text.length() - i - 1) > limit && best > limit)
+			{
+				break;
+			}
+		}
+		return best;
+	}
+
+	private static long mask(String pattern, long[] asciiMasks, char c)
+	{
+		if (c < ASCII)
+		{
+			return asciiMasks[c];
+		}
+		long mask = 0;
+		for (int i = 0; i < pattern.length(); i++)
+		{
+			if (pattern.charAt(i) == c)
+			{
+				mask |= 1L << i;
+			}
+		}
+		return mask;
+	}
+}
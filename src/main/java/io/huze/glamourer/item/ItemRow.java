@@ -1,83 +1,81 @@
 package io.huze.glamourer.item;
 
-import lombok.AllArgsConstructor;
-import lombok.Builder;
-import lombok.Data;
+import lombok.Getter;
 
-@Data
-@Builder
-@AllArgsConstructor
-public class ItemRow
+/**
+ * Flyweight view of one item sheet row. All reads go straight to the {@link ItemTable} columns.
+ */
+public final class ItemRow
 {
-	final int id;
-	final long releaseDate;
-	final long removalDate;
-	final boolean isQuest;
-	final short category;
+	private final ItemTable table;
+	@Getter
+	private final int id;
+
+	ItemRow(ItemTable table, int id)
+	{
+		this.table = table;
+		this.id = id;
+	}
+
+	public long getReleaseDate()
+	{
+		return table.releaseDate[id];
+	}
+
+	public long getRemovalDate()
+	{
+		return table.removalDate[id];
+	}
+
+	public boolean isQuest()
+	{
+		return table.isQuest(id);
+	}
+
+	public short getCategory()
+	{
+		return table.category[id];
+	}
+
+	public boolean isUncommon()
+	{
+		return Category.isUncommon(table.category[id]);
+	}
+
 	// Note: Models are only specified if their colors differ from the inventory model.
-	final int maleModel0;
-	final int maleModel1;
-	final int maleModel2;
-	final int femaleModel0;
-	final int femaleModel1;
-	final int femaleModel2;
+	public int getMaleModel0()
+	{
+		return table.getModel(id, 0);
+	}
+
+	public int getMaleModel1()
+	{
+		return table.getModel(id, 1);
+	}
+
+	public int getMaleModel2()
+	{
+		return table.getModel(id, 2);
+	}
+
+	public int getFemaleModel0()
+	{
+		return table.getModel(id, 3);
+	}
 
-	public boolean isUncommon() {
-		switch (category) {
-			case Category.DeadItems:
-			case Category.BoardGame1:
-			case Category.BoardGame2:
-			case Category.Banner:
-			case Category.Housing:
-			case Category.HouseRoom:
-			case Category.HouseFurniture:
-			case Category.BarbAssault1:
-			case Category.BarbAssault2:
-			case Category.BarbAssault3:
-			case Category.BarbAssault4:
-			case Category.ItemPack:
-			case Category.ReadableBook1:
-			case Category.ReadableBook2:
-			case Category.ReadableBook3:
-			case Category.BarbAssaultIcon:
-			case Category.SoulWarsIcon:
-			case Category.Xp:
-			case Category.ArmorSet:
-			case Category.HunterRumourPart:
-			case Category.CarvedPumpkin:
-			case Category.SailingBottle:
-			case Category.FishCrate:
-			case Category.SailingSchematic:
-			case Category.SailingLockboxKey:
-			case Category.SailingCourierCrate:
-			case Category.SailingBountyPart:
-			case Category.SailingRelic:
-				return true;
-		}
-		return false;
+	public int getFemaleModel1()
+	{
+		return table.getModel(id, 4);
 	}
 
-	public static ItemRow fromCsvString(String row)
+	public int getFemaleModel2()
 	{
-		String[] cols = row.split(",", -1);
-		if (cols.length != ItemSheet.CSV_HEADERS.length)
-		{
-			throw new IllegalArgumentException(row);
-		}
+		return table.getModel(id, 5);
+	}
 
-		int i = 0;
-		return ItemRow.builder()
-			.id(Integer.parseInt(cols[i++].trim()))
-			.releaseDate(Long.parseLong(cols[i++].trim()))
-			.removalDate(Long.parseLong(cols[i++].trim()))
-			.isQuest(Boolean.parseBoolean(cols[i++].trim()))
-			.category(Short.parseShort(cols[i++].trim()))
-			.maleModel0(Integer.parseInt(cols[i++].trim()))
-			.maleModel1(Integer.parseInt(cols[i++].trim()))
-			.maleModel2(Integer.parseInt(cols[i++].trim()))
-			.femaleModel0(Integer.parseInt(cols[i++].trim()))
-			.femaleModel1(Integer.parseInt(cols[i++].trim()))
-			.femaleModel2(Integer.parseInt(cols[i++].trim()))
-			.build();
+	@Override
+	public String toString()
+	{
+		return "ItemRow(id=" + id + ")";
 	}
-}
\ No newline at end of file
+}
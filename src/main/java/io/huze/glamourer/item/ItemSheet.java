@@ -1,19 +1,16 @@
 package io.huze.glamourer.item;
 
-import java.io.BufferedReader;
+import io.huze.glamourer.Extensions;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.BitSet;
 import java.util.concurrent.CompletableFuture;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 import javax.inject.Inject;
 import javax.inject.Singleton;
-import lombok.Getter;
+import lombok.experimental.ExtensionMethod;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.api.Client;
 import net.runelite.api.ModelData;
@@ -21,28 +18,35 @@ import net.runelite.client.game.ItemManager;
 
 @Slf4j
 @Singleton
+@ExtensionMethod({Extensions.class})
 public class ItemSheet
 {
 	public static final String[] CSV_HEADERS = {"id", "release_date", "removal_date", "quest", "category", "male_model0", "male_model1", "male_model2", "female_model0", "female_model1", "female_model2"};
+	// Optional trailing column: the item's palette as 4 hex digits per packed HSL color
+	public static final String CSV_PALETTE_HEADER = "palette";
+	// Optional last column: the item's members name, optionally double-quoted
+	public static final String CSV_NAME_HEADER = "name";
+	static final String BINARY_RESOURCE = "item_sheet.bin.deflate";
+	static final String CSV_RESOURCE = "item_sheet.csv";
 
 	private final Client client;
 	private final ItemManager itemManager;
+	private final ModelPaletteCache modelPaletteCache;
 
-	private final CompletableFuture<List<ItemRow>> futureItems;
+	private final CompletableFuture<ItemTable> futureItems;
 
-	private volatile Map<Integer, ItemRow> itemsById;
-	@Getter
-	private volatile Set<Integer> removedItemIds;
-	@Getter
-	private volatile Set<Integer> questItemIds;
-	@Getter
-	private volatile Set<Integer> uncommonItemIds;
+	private volatile ItemTable items;
+	// Indexed by skipMaskIndex(includeQuest, includeUncommon)
+	private volatile BitSet[] skipMasks;
+	// Null when the sheet was generated without names
+	private volatile NameIndex names;
 
 	@Inject
-	public ItemSheet(Client client, ItemManager itemManager)
+	public ItemSheet(Client client, ItemManager itemManager, ModelPaletteCache modelPaletteCache)
 	{
 		this.client = client;
 		this.itemManager = itemManager;
+		this.modelPaletteCache = modelPaletteCache;
 		futureItems = loadItemsAsync();
 	}
 
@@ -51,93 +55,226 @@ public class ItemSheet
 		return futureItems.isDone();
 	}
 
-	public Collection<ModelData> getModels(int itemId)
+	/**
+	 * @return the sorted, distinct face colors of the item's inventory and wear models
+	 */
+	public short[] getPalette(int itemId)
 	{
-		var inventoryModelData = client.loadModelData(itemManager.getItemComposition(itemId).getInventoryModel());
-		if (inventoryModelData == null)
+		var table = items;
+		var palette = table.getPalette(itemId);
+		if (palette != null)
+		{
+			return palette;
+		}
+		// Palettes built from model loads, for items the sheet has no palette for, share the model cache's budget
+		return modelPaletteCache.getItemPalette(itemId, id -> loadPalette(table, id)).deepCopy();
+	}
+
+	// Merge colors from inventory and equipment models.
+	private short[] loadPalette(ItemTable table, int itemId)
+	{
+		int inventoryModel = itemManager.getItemComposition(itemId).getInventoryModel();
+		var inventoryPalette = getModelPalette(inventoryModel);
+		if (inventoryPalette == null)
 		{
 			throw new IllegalStateException("Failed to load model data for item: " + itemId);
 		}
-		var row = getItemById(itemId);
-		if (row == null)
+		var palette = inventoryPalette;
+		int offset = table.modelOffset(itemId);
+		if (offset < 0)
 		{
-			return List.of(inventoryModelData);
+			return palette.deepCopy();
 		}
-		var modelList = new ArrayList<ModelData>();
-		modelList.add(inventoryModelData);
-
-		var modelIds = new int[]{
-			row.getMaleModel0(), row.getMaleModel1(), row.getMaleModel2(),
-			row.getFemaleModel0(), row.getFemaleModel1(), row.getFemaleModel2()
-		};
-		for (int modelId : modelIds)
+
+		var mergedSignatures = new long[ItemTable.MODELS_PER_ITEM + 1];
+		int mergedCount = 0;
+		mergedSignatures[mergedCount++] = ModelPaletteCache.signatureOf(inventoryPalette);
+		for (int i = offset; i < offset + ItemTable.MODELS_PER_ITEM; i++)
 		{
-			if (modelId > 0)
+			int modelId = table.models[i];
+			if (modelId <= 0 || modelId == inventoryModel || Extensions.indexOf(table.models, offset, i, modelId) >= 0)
+			{
+				continue;
+			}
+			// Skip loading models whose palette matches one already merged.
+			long signature = modelPaletteCache.getSignature(modelId);
+			if (signature != 0 && Extensions.indexOf(mergedSignatures, 0, mergedCount, signature) >= 0)
+			{
+				continue;
+			}
+			var modelPalette = getModelPalette(modelId);
+			if (modelPalette != null)
 			{
-				modelList.add(client.loadModelData(modelId));
+				mergedSignatures[mergedCount++] = ModelPaletteCache.signatureOf(modelPalette);
+				palette = palette.mergeSorted(modelPalette);
 			}
 		}
-		return modelList;
+		return palette == inventoryPalette ? palette.deepCopy() : palette;
+	}
+
+	private short[] getModelPalette(int modelId)
+	{
+		return modelPaletteCache.get(modelId, id -> {
+			ModelData model = client.loadModelData(id);
+			return model == null ? null : Extensions.sortedDistinct(model.getFaceColors());
+		});
+	}
+
+	/**
+	 * Items which search should skip: removed items, plus quest and uncommon items unless included.
+	 * The returned set is shared and must not be modified.
+	 */
+	public BitSet getSkipMask(boolean includeQuest, boolean includeUncommon)
+	{
+		return skipMasks[skipMaskIndex(includeQuest, includeUncommon)];
+	}
+
+	private static int skipMaskIndex(boolean includeQuest, boolean includeUncommon)
+	{
+		return (includeQuest ? 1 : 0) | (includeUncommon ? 2 : 0);
+	}
+
+	/**
+	 * @return items released at or after {@code from} and before {@code to}, in epoch seconds
+	 */
+	public BitSet getItemsReleasedBetween(long from, long to)
+	{
+		return items.releasedBetween(from, to);
+	}
+
+	/**
+	 * @return the first and last release year of any item in the sheet
+	 */
+	public int[] getReleaseYearRange()
+	{
+		var table = items;
+		return new int[]{toYear(table.getEarliestReleaseDate()), toYear(table.getLatestReleaseDate())};
+	}
+
+	private static int toYear(long epochSeconds)
+	{
+		return Instant.ofEpochSecond(epochSeconds).atZone(ZoneOffset.UTC).getYear();
+	}
+
+	/**
+	 * Searches the item names shipped in the sheet, which are available before the client has loaded its item cache.
+	 *
+	 * @param queryWords lowercase query words which must each prefix a word of the name
+	 * @return ids of the items whose sheet name matches, or null if the sheet has no names
+	 */
+	public BitSet getItemsMatchingName(String[] queryWords)
+	{
+		var index = names;
+		return index == null ? null : index.matching(queryWords);
+	}
+
+	/**
+	 * @return the item's members name from the sheet, or null if the sheet has none for it
+	 */
+	public String getItemName(int itemId)
+	{
+		return items.getName(itemId);
 	}
 
 	public ItemRow getItemById(int itemId)
 	{
-		return itemsById.get(itemId);
+		return items.getRow(itemId);
 	}
 
-	public CompletableFuture<List<ItemRow>> loadItemsAsync()
+	private CompletableFuture<ItemTable> loadItemsAsync()
 	{
 		return CompletableFuture.supplyAsync(() -> {
 			long startTime = System.nanoTime();
-			List<ItemRow> items = new ArrayList<>();
-
-			var is = getClass().getResourceAsStream("item_sheet.csv");
-			if (is == null)
+			var table = loadBinary();
+			if (table == null)
 			{
-				throw new RuntimeException("Failed to find item sheet");
+				log.warn("Binary item sheet missing, falling back to CSV");
+				table = loadCsv();
 			}
-			try (BufferedReader br = new BufferedReader(new InputStreamReader(is)))
+
+			var removed = new BitSet(table.idCount);
+			var quest = new BitSet(table.idCount);
+			var uncommon = new BitSet(table.idCount);
+			for (int id = 0; id < table.idCount; id++)
 			{
-				String line;
-				boolean isFirstLine = true;
-				while ((line = br.readLine()) != null)
+				if (!table.contains(id))
 				{
-					if (line.startsWith("#"))
-					{
-						continue;
-					}
-					if (isFirstLine)
-					{
-						if (!line.equals(String.join(",", CSV_HEADERS)))
-						{
-							throw new IllegalArgumentException();
-						}
-						isFirstLine = false;
-						continue;
-					}
-					items.add(ItemRow.fromCsvString(line));
+					continue;
+				}
+				if (table.removalDate[id] < Integer.MAX_VALUE)
+				{
+					removed.set(id);
+				}
+				if (table.isQuest(id))
+				{
+					quest.set(id);
+				}
+				if (Category.isUncommon(table.category[id]))
+				{
+					uncommon.set(id);
 				}
 			}
-			catch (IOException | NumberFormatException e)
+
+			var masks = new BitSet[4];
+			for (int i = 0; i < masks.length; i++)
 			{
-				throw new RuntimeException("Failed to parse CSV", e);
+				boolean includeQuest = (i & 1) != 0;
+				boolean includeUncommon = (i & 2) != 0;
+				var mask = (BitSet) removed.clone();
+				if (!includeQuest)
+				{
+					mask.or(quest);
+				}
+				if (!includeUncommon)
+				{
+					mask.or(uncommon);
+				}
+				masks[skipMaskIndex(includeQuest, includeUncommon)] = mask;
 			}
-			this.itemsById = items.stream()
-				.collect(Collectors.toMap(ItemRow::getId, Function.identity()));
-			this.removedItemIds = items.stream()
-				.filter(i -> i.removalDate < Integer.MAX_VALUE)
-				.map(ItemRow::getId)
-				.collect(Collectors.toSet());
-			this.questItemIds = items.stream()
-				.filter(ItemRow::isQuest)
-				.map(ItemRow::getId)
-				.collect(Collectors.toSet());
-			this.uncommonItemIds = items.stream()
-				.filter(ItemRow::isUncommon)
-				.map(ItemRow::getId)
-				.collect(Collectors.toSet());
+			table.buildReleaseIndex();
+			this.names = table.hasNames() ? NameIndex.build(table) : null;
+			this.items = table;
+			this.skipMasks = masks;
 			log.debug("ItemSheet load took {}ms", (System.nanoTime() - startTime) / 1_000_000);
-			return items;
+			return table;
 		});
 	}
+
+	private ItemTable loadBinary()
+	{
+		var inflater = new Inflater();
+		try (var is = getClass().getResourceAsStream(BINARY_RESOURCE))
+		{
+			if (is == null)
+			{
+				return null;
+			}
+			return ItemTable.read(new InflaterInputStream(is, inflater, 1 << 16));
+		}
+		catch (IOException | RuntimeException e)
+		{
+			log.warn("Failed to read binary item sheet", e);
+			return null;
+		}
+		finally
+		{
+			inflater.end();
+		}
+	}
+
+	private ItemTable loadCsv()
+	{
+		try (var is = getClass().getResourceAsStream(CSV_RESOURCE))
+		{
+			if (is == null)
+			{
+				throw new RuntimeException("Failed to find item sheet");
+			}
+			return ItemSheetCsvParser.parse(is);
+		}
+		catch (IOException | IllegalArgumentException e)
+		{
+			throw new RuntimeException("Failed to parse CSV", e);
+		}
+	}
 }
@@ -0,0 +1,462 @@
+package io.huze.glamourer.item;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming parser for {@code item_sheet.csv} which decodes fields straight from a byte buffer into primitive
+ * columns. Nothing is allocated per row apart from the occasional column growth.
+ */
+final class ItemSheetCsvParser
+{
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int INITIAL_ROWS = 1 << 14;
+	private static final int INITIAL_OPTIONAL_ROWS = 1 << 8;
+	private static final byte[] HEADER = String.join(",", ItemSheet.CSV_HEADERS).getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] PALETTE_HEADER = ItemSheet.CSV_PALETTE_HEADER.getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] NAME_HEADER = ItemSheet.CSV_NAME_HEADER.getBytes(StandardCharsets.US_ASCII);
+
+	private final InputStream in;
+	private final byte[] buf = new byte[BUFFER_SIZE];
+	private int pos;
+	private int limit;
+	private int line = 1;
+	private boolean hasPalettes;
+	private boolean hasNames;
+
+	// Rows in file order, scattered into an ItemTable once the highest id is known.
+	private int rowCount;
+	private int maxId = -1;
+	private int[] ids = new int[INITIAL_ROWS];
+	private int[] releaseDate = new int[INITIAL_ROWS];
+	private int[] removalDate = new int[INITIAL_ROWS];
+	private short[] category = new short[INITIAL_ROWS];
+	private byte[] flags = new byte[INITIAL_ROWS];
+	private int modelRowCount;
+	private int[] modelItemIds = new int[INITIAL_ROWS / 4];
+	private int[] models = new int[INITIAL_ROWS / 4 * ItemTable.MODELS_PER_ITEM];
+	private int paletteItemCount;
+	private int paletteColorCount;
+	private int[] paletteItemIds = new int[INITIAL_OPTIONAL_ROWS];
+	private int[] paletteStart = new int[INITIAL_OPTIONAL_ROWS + 1];
+	private short[] paletteColors = new short[INITIAL_OPTIONAL_ROWS * 16];
+	private int nameItemCount;
+	private int nameByteCount;
+	private int[] nameItemIds = new int[INITIAL_OPTIONAL_ROWS];
+	private int[] nameStart = new int[INITIAL_OPTIONAL_ROWS + 1];
+	private byte[] nameBytes = new byte[INITIAL_OPTIONAL_ROWS * 16];
+
+	private ItemSheetCsvParser(InputStream in)
+	{
+		this.in = in;
+	}
+
+	static ItemTable parse(InputStream in) throws IOException
+	{
+		var parser = new ItemSheetCsvParser(in);
+		parser.parseHeader();
+		while (parser.hasNextRow())
+		{
+			parser.parseRow();
+		}
+		return parser.toTable();
+	}
+
+	private void parseHeader() throws IOException
+	{
+		skipComments();
+		expectHeader(HEADER);
+		// Optional trailing columns, in this order
+		if (peek() == ',')
+		{
+			pos++;
+			if (peek() == PALETTE_HEADER[0])
+			{
+				expectHeader(PALETTE_HEADER);
+				hasPalettes = true;
+				if (peek() == ',')
+				{
+					pos++;
+					expectHeader(NAME_HEADER);
+					hasNames = true;
+				}
+			}
+			else
+			{
+				expectHeader(NAME_HEADER);
+				hasNames = true;
+			}
+		}
+		endLine();
+	}
+
+	private void expectHeader(byte[] header) throws IOException
+	{
+		for (byte b : header)
+		{
+			if (read() != b)
+			{
+				throw error("Unexpected header");
+			}
+		}
+	}
+
+	private boolean hasNextRow() throws IOException
+	{
+		skipComments();
+		return peek() >= 0;
+	}
+
+	private void parseRow() throws IOException
+	{
+		if (rowCount == ids.length)
+		{
+			growRows();
+		}
+
+		int row = rowCount++;
+		int id = parseInt();
+		if (id < 0)
+		{
+			throw error("Negative item id");
+		}
+		ids[row] = id;
+		maxId = Math.max(maxId, id);
+		separator();
+		releaseDate[row] = toInt(parseLong());
+		separator();
+		removalDate[row] = toInt(parseLong());
+		separator();
+		boolean quest = parseBoolean();
+		separator();
+		long cat = parseLong();
+		if (cat < Short.MIN_VALUE || cat > Short.MAX_VALUE)
+		{
+			throw error("Category out of range");
+		}
+		category[row] = (short) cat;
+		flags[row] = (byte) (ItemTable.FLAG_PRESENT | (quest ? ItemTable.FLAG_QUEST : 0));
+
+		if (modelRowCount == modelItemIds.length)
+		{
+			growModels();
+		}
+		int base = modelRowCount * ItemTable.MODELS_PER_ITEM;
+		boolean hasModels = false;
+		for (int i = 0; i < ItemTable.MODELS_PER_ITEM; i++)
+		{
+			separator();
+			int model = parseInt();
+			models[base + i] = model;
+			hasModels |= model > 0;
+		}
+		if (hasModels)
+		{
+			modelItemIds[modelRowCount++] = id;
+		}
+		if (hasPalettes)
+		{
+			separator();
+			parsePalette(id);
+		}
+		if (hasNames)
+		{
+			separator();
+			parseName(id);
+		}
+		endLine();
+	}
+
+	// The name is the rest of the line, optionally double-quoted with "" as an escaped quote.
+	private void parseName(int id) throws IOException
+	{
+		int start = nameByteCount;
+		boolean quoted = peek() == '"';
+		if (quoted)
+		{
+			pos++;
+		}
+		int c;
+		while ((c = peek()) >= 0 && c != '\n' && c != '\r')
+		{
+			pos++;
+			if (quoted && c == '"')
+			{
+				if (peek() != '"')
+				{
+					break;
+				}
+				pos++;
+			}
+			if (nameByteCount == nameBytes.length)
+			{
+				nameBytes = Arrays.copyOf(nameBytes, nameBytes.length * 2);
+			}
+			nameBytes[nameByteCount++] = (byte) c;
+		}
+		if (nameByteCount == start)
+		{
+			return;
+		}
+		if (nameItemCount == nameItemIds.length)
+		{
+			nameItemIds = Arrays.copyOf(nameItemIds, nameItemIds.length * 2);
+			nameStart = Arrays.copyOf(nameStart, nameItemIds.length + 1);
+		}
+		nameItemIds[nameItemCount++] = id;
+		nameStart[nameItemCount] = nameByteCount;
+	}
+
+	private void parsePalette(int id) throws IOException
+	{
+		skipBlanks();
+		int start = paletteColorCount;
+		int value = 0;
+		int digits = 0;
+		int nibble;
+		while ((nibble = hexValue(peek())) >= 0)
+		{
+			pos++;
+			value = value << 4 | nibble;
+			if (++digits == 4)
+			{
+				if (paletteColorCount == paletteColors.length)
+				{
+					paletteColors = Arrays.copyOf(paletteColors, paletteColors.length * 2);
+				}
+				paletteColors[paletteColorCount++] = (short) value;
+				value = 0;
+				digits = 0;
+			}
+		}
+		if (digits != 0)
+		{
+			throw error("Palette must have 4 hex digits per color");
+		}
+		skipBlanks();
+		if (paletteColorCount == start)
+		{
+			return;
+		}
+		if (paletteItemCount == paletteItemIds.length)
+		{
+			paletteItemIds = Arrays.copyOf(paletteItemIds, paletteItemIds.length * 2);
+			paletteStart = Arrays.copyOf(paletteStart, paletteItemIds.length + 1);
+		}
+		paletteItemIds[paletteItemCount++] = id;
+		paletteStart[paletteItemCount] = paletteColorCount;
+	}
+
+	private ItemTable toTable()
+	{
+		var table = new ItemTable(maxId + 1, modelRowCount, paletteItemCount, paletteColorCount,
+			nameItemCount, nameByteCount);
+		for (int row = 0; row < rowCount; row++)
+		{
+			int id = ids[row];
+			table.releaseDate[id] = releaseDate[row];
+			table.removalDate[id] = removalDate[row];
+			table.category[id] = category[row];
+			table.flags[id] = flags[row];
+		}
+		System.arraycopy(models, 0, table.models, 0, modelRowCount * ItemTable.MODELS_PER_ITEM);
+		for (int i = 0; i < modelRowCount; i++)
+		{
+			table.modelRow[modelItemIds[i]] = i;
+		}
+		System.arraycopy(paletteStart, 0, table.paletteStart, 0, paletteItemCount + 1);
+		System.arraycopy(paletteColors, 0, table.paletteColors, 0, paletteColorCount);
+		for (int i = 0; i < paletteItemCount; i++)
+		{
+			table.paletteRow[paletteItemIds[i]] = i;
+		}
+		System.arraycopy(nameStart, 0, table.nameStart, 0, nameItemCount + 1);
+		System.arraycopy(nameBytes, 0, table.nameBytes, 0, nameByteCount);
+		for (int i = 0; i < nameItemCount; i++)
+		{
+			table.nameRow[nameItemIds[i]] = i;
+		}
+		return table;
+	}
+
+	private void growRows()
+	{
+		int size = ids.length * 2;
+		ids = Arrays.copyOf(ids, size);
+		releaseDate = Arrays.copyOf(releaseDate, size);
+		removalDate = Arrays.copyOf(removalDate, size);
+		category = Arrays.copyOf(category, size);
+		flags = Arrays.copyOf(flags, size);
+	}
+
+	private void growModels()
+	{
+		int size = modelItemIds.length * 2;
+		modelItemIds = Arrays.copyOf(modelItemIds, size);
+		models = Arrays.copyOf(models, size * ItemTable.MODELS_PER_ITEM);
+	}
+
+	private int parseInt() throws IOException
+	{
+		return toInt(parseLong());
+	}
+
+	private int toInt(long value)
+	{
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+		{
+			throw error("Value out of range");
+		}
+		return (int) value;
+	}
+
+	private long parseLong() throws IOException
+	{
+		skipBlanks();
+		boolean negative = false;
+		if (peek() == '-')
+		{
+			negative = true;
+			pos++;
+		}
+		int c = peek();
+		if (c < '0' || c > '9')
+		{
+			throw error("Expected a number");
+		}
+		long value = 0;
+		int digits = 0;
+		do
+		{
+			value = value * 10 + (c - '0');
+			pos++;
+			if (++digits > 18)
+			{
+				throw error("Number too long");
+			}
+			c = peek();
+		}
+		while (c >= '0' && c <= '9');
+		skipBlanks();
+		return negative ? -value : value;
+	}
+
+	// Matches Boolean.parseBoolean: "true" in any case is true, anything else is false.
+	private boolean parseBoolean() throws IOException
+	{
+		skipBlanks();
+		int matched = 0;
+		boolean mismatch = false;
+		int c;
+		while ((c = peek()) >= 0 && c != ',' && c != '\n' && c != '\r' && c != ' ' && c != '\t')
+		{
+			if (matched < 4 && (c | 0x20) == "true".charAt(matched))
+			{
+				matched++;
+			}
+			else
+			{
+				mismatch = true;
+			}
+			pos++;
+		}
+		skipBlanks();
+		return matched == 4 && !mismatch;
+	}
+
+	private static int hexValue(int c)
+	{
+		if (c >= '0' && c <= '9')
+		{
+			return c - '0';
+		}
+		c |= 0x20;
+		if (c >= 'a' && c <= 'f')
+		{
+			return c - 'a' + 10;
+		}
+		return -1;
+	}
+
+	private void separator() throws IOException
+	{
+		if (read() != ',')
+		{
+			throw error("Expected ','");
+		}
+	}
+
+	private void endLine() throws IOException
+	{
+		int c = read();
+		if (c == '\r')
+		{
+			c = read();
+		}
+		if (c != '\n' && c >= 0)
+		{
+			throw error("Expected end of line");
+		}
+		line++;
+	}
+
+	private void skipComments() throws IOException
+	{
+		int c;
+		while ((c = peek()) == '#' || c == '\n' || c == '\r')
+		{
+			do
+			{
+				c = read();
+			}
+			while (c >= 0 && c != '\n');
+			line++;
+		}
+	}
+
+	private void skipBlanks() throws IOException
+	{
+		int c;
+		while ((c = peek()) == ' ' || c == '\t')
+		{
+			pos++;
+		}
+	}
+
+	private int peek() throws IOException
+	{
+		if (pos == limit && !fill())
+		{
+			return -1;
+		}
+		return buf[pos] & 0xFF;
+	}
+
+	private int read() throws IOException
+	{
+		if (pos == limit && !fill())
+		{
+			return -1;
+		}
+		return buf[pos++] & 0xFF;
+	}
+
+	private boolean fill() throws IOException
+	{
+		int n = in.read(buf, 0, buf.length);
+		if (n <= 0)
+		{
+			return false;
+		}
+		pos = 0;
+		limit = n;
+		return true;
+	}
+
+	private IllegalArgumentException error(String message)
+	{
+		return new IllegalArgumentException("Malformed item sheet at line " + line + ": " + message);
+	}
+}
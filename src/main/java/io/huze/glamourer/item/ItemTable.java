@@ -0,0 +1,298 @@
+package io.huze.glamourer.item;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Column store for the item sheet, indexed directly by item id.
+ * <p>
+ * The binary form is produced by the {@code compileItemSheet} Gradle task and shipped deflate-compressed as
+ * {@code item_sheet.bin.deflate}. Once inflated it is a header followed by fixed-width big-endian columns:
+ * <pre>
+ * int magic, int version, int idCount, int modelRowCount, int paletteItemCount, int paletteColorCount,
+ *   int nameItemCount, int nameByteCount
+ * int[idCount] releaseDate
+ * int[idCount] removalDate
+ * short[idCount] category
+ * byte[idCount] flags
+ * int[modelRowCount] modelItemId
+ * int[modelRowCount * MODELS_PER_ITEM] models
+ * int[paletteItemCount] paletteItemId
+ * int[paletteItemCount + 1] paletteStart
+ * short[paletteColorCount] paletteColors
+ * int[nameItemCount] nameItemId
+ * int[nameItemCount + 1] nameStart
+ * byte[nameByteCount] nameBytes (UTF-8)
+ * </pre>
+ * Only items with at least one wear model get a model row. Palettes are the merged, sorted face colors of an item's
+ * inventory and wear models, and are only present for items the sheet generator has resolved. The same goes for
+ * members names.
+ */
+final class ItemTable
+{
+	static final int MAGIC = 0x474C4953; // "GLIS"
+	static final int VERSION = 3;
+	static final int MODELS_PER_ITEM = 6;
+	static final byte FLAG_PRESENT = 1;
+	static final byte FLAG_QUEST = 1 << 1;
+	private static final int READ_CHUNK_BYTES = 1 << 13;
+
+	final int idCount;
+	final int[] releaseDate;
+	final int[] removalDate;
+	final short[] category;
+	final byte[] flags;
+	// Index into models (in units of MODELS_PER_ITEM) per item id, or -1 when the item has no wear models.
+	final int[] modelRow;
+	final int[] models;
+	// Index into paletteStart per item id, or -1 when the sheet has no palette for the item.
+	final int[] paletteRow;
+	final int[] paletteStart;
+	final short[] paletteColors;
+	// Index into nameStart per item id, or -1 when the sheet has no name for the item.
+	final int[] nameRow;
+	final int[] nameStart;
+	final byte[] nameBytes;
+	// Present item ids ordered by release date, with their dates alongside for binary search.
+	private int[] releaseOrder;
+	private int[] sortedReleaseDates;
+
+	ItemTable(int idCount, int modelRowCount, int paletteItemCount, int paletteColorCount,
+			  int nameItemCount, int nameByteCount)
+	{
+		this.idCount = idCount;
+		releaseDate = new int[idCount];
+		removalDate = new int[idCount];
+		category = new short[idCount];
+		flags = new byte[idCount];
+		modelRow = new int[idCount];
+		models = new int[modelRowCount * MODELS_PER_ITEM];
+		paletteRow = new int[idCount];
+		paletteStart = new int[paletteItemCount + 1];
+		paletteColors = new short[paletteColorCount];
+		nameRow = new int[idCount];
+		nameStart = new int[nameItemCount + 1];
+		nameBytes = new byte[nameByteCount];
+		Arrays.fill(modelRow, -1);
+		Arrays.fill(paletteRow, -1);
+		Arrays.fill(nameRow, -1);
+	}
+
+	boolean contains(int itemId)
+	{
+		return itemId >= 0 && itemId < idCount && (flags[itemId] & FLAG_PRESENT) != 0;
+	}
+
+	ItemRow getRow(int itemId)
+	{
+		return contains(itemId) ? new ItemRow(this, itemId) : null;
+	}
+
+	boolean isQuest(int itemId)
+	{
+		return (flags[itemId] & FLAG_QUEST) != 0;
+	}
+
+	/**
+	 * @return the offset of the item's wear models in {@link #models}, or -1 if it has none
+	 */
+	int modelOffset(int itemId)
+	{
+		if (itemId < 0 || itemId >= idCount)
+		{
+			return -1;
+		}
+		int row = modelRow[itemId];
+		return row < 0 ? -1 : row * MODELS_PER_ITEM;
+	}
+
+	int getModel(int itemId, int slot)
+	{
+		int offset = modelOffset(itemId);
+		return offset < 0 ? -1 : models[offset + slot];
+	}
+
+	/**
+	 * @return a copy of the item's precomputed palette, or null if the sheet has none for it
+	 */
+	short[] getPalette(int itemId)
+	{
+		if (itemId < 0 || itemId >= idCount)
+		{
+			return null;
+		}
+		int row = paletteRow[itemId];
+		return row < 0 ? null : Arrays.copyOfRange(paletteColors, paletteStart[row], paletteStart[row + 1]);
+	}
+
+	boolean hasNames()
+	{
+		return nameBytes.length > 0;
+	}
+
+	/**
+	 * @return the item's members name from the sheet, or null if the sheet has none for it
+	 */
+	String getName(int itemId)
+	{
+		if (itemId < 0 || itemId >= idCount)
+		{
+			return null;
+		}
+		int row = nameRow[itemId];
+		if (row < 0)
+		{
+			return null;
+		}
+		return new String(nameBytes, nameStart[row], nameStart[row + 1] - nameStart[row], StandardCharsets.UTF_8);
+	}
+
+	void buildReleaseIndex()
+	{
+		int count = 0;
+		var keys = new long[idCount];
+		for (int id = 0; id < idCount; id++)
+		{
+			if (contains(id))
+			{
+				keys[count++] = (long) releaseDate[id] << 32 | id;
+			}
+		}
+		Arrays.sort(keys, 0, count);
+		releaseOrder = new int[count];
+		sortedReleaseDates = new int[count];
+		for (int i = 0; i < count; i++)
+		{
+			releaseOrder[i] = (int) keys[i];
+			sortedReleaseDates[i] = (int) (keys[i] >>> 32);
+		}
+	}
+
+	/**
+	 * @return the ids of items released at or after {@code from} and before {@code to}, in epoch seconds
+	 */
+	BitSet releasedBetween(long from, long to)
+	{
+		var result = new BitSet(idCount);
+		int end = lowerBound(sortedReleaseDates, to);
+		for (int i = lowerBound(sortedReleaseDates, from); i < end; i++)
+		{
+			result.set(releaseOrder[i]);
+		}
+		return result;
+	}
+
+	// Items with an unknown release date are stored as 0 and ignored here.
+	int getEarliestReleaseDate()
+	{
+		int first = lowerBound(sortedReleaseDates, 1);
+		return first == sortedReleaseDates.length ? 0 : sortedReleaseDates[first];
+	}
+
+	int getLatestReleaseDate()
+	{
+		return sortedReleaseDates.length == 0 ? 0 : sortedReleaseDates[sortedReleaseDates.length - 1];
+	}
+
+	private static int lowerBound(int[] sorted, long value)
+	{
+		int lo = 0;
+		int hi = sorted.length;
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (sorted[mid] < value)
+			{
+				lo = mid + 1;
+			}
+			else
+			{
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	static ItemTable read(InputStream in) throws IOException
+	{
+		var data = new DataInputStream(in);
+		if (data.readInt() != MAGIC)
+		{
+			throw new IllegalArgumentException("Not an item sheet");
+		}
+		int version = data.readInt();
+		if (version != VERSION)
+		{
+			throw new IllegalArgumentException("Unsupported item sheet version: " + version);
+		}
+		int idCount = data.readInt();
+		int modelRowCount = data.readInt();
+		int paletteItemCount = data.readInt();
+		int paletteColorCount = data.readInt();
+		int nameItemCount = data.readInt();
+		int nameByteCount = data.readInt();
+
+		var table = new ItemTable(idCount, modelRowCount, paletteItemCount, paletteColorCount,
+			nameItemCount, nameByteCount);
+		var chunk = ByteBuffer.allocate(READ_CHUNK_BYTES);
+		readInts(data, chunk, table.releaseDate);
+		readInts(data, chunk, table.removalDate);
+		readShorts(data, chunk, table.category);
+		data.readFully(table.flags);
+		var modelItemIds = new int[modelRowCount];
+		readInts(data, chunk, modelItemIds);
+		readInts(data, chunk, table.models);
+		for (int i = 0; i < modelRowCount; i++)
+		{
+			table.modelRow[modelItemIds[i]] = i;
+		}
+		var paletteItemIds = new int[paletteItemCount];
+		readInts(data, chunk, paletteItemIds);
+		readInts(data, chunk, table.paletteStart);
+		readShorts(data, chunk, table.paletteColors);
+		for (int i = 0; i < paletteItemCount; i++)
+		{
+			table.paletteRow[paletteItemIds[i]] = i;
+		}
+		var nameItemIds = new int[nameItemCount];
+		readInts(data, chunk, nameItemIds);
+		readInts(data, chunk, table.nameStart);
+		data.readFully(table.nameBytes);
+		for (int i = 0; i < nameItemCount; i++)
+		{
+			table.nameRow[nameItemIds[i]] = i;
+		}
+		return table;
+	}
+
+	private static void readInts(DataInputStream in, ByteBuffer chunk, int[] dst) throws IOException
+	{
+		var view = chunk.asIntBuffer();
+		for (int done = 0; done < dst.length; )
+		{
+			int n = Math.min(dst.length - done, view.capacity());
+			in.readFully(chunk.array(), 0, n * Integer.BYTES);
+			view.rewind();
+			view.get(dst, done, n);
+			done += n;
+		}
+	}
+
+	private static void readShorts(DataInputStream in, ByteBuffer chunk, short[] dst) throws IOException
+	{
+		var view = chunk.asShortBuffer();
+		for (int done = 0; done < dst.length; )
+		{
+			int n = Math.min(dst.length - done, view.capacity());
+			in.readFully(chunk.array(), 0, n * Short.BYTES);
+			view.rewind();
+			view.get(dst, done, n);
+			done += n;
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package io.huze.glamourer.item;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.Getter;
+
+/**
+ * Families of inventory models which dedupe as one, loaded from {@code model_families.csv}. Lines sharing a model are
+ * merged with a union-find, so a family can be extended by adding a line rather than editing an existing one.
+ */
+final class ModelFamilies
+{
+	static final String RESOURCE = "model_families.csv";
+	private static final ModelFamilies INSTANCE = load();
+
+	// Sorted model ids, and the model each one dedupes as
+	private final int[] models;
+	private final int[] representatives;
+	// Hash of the table, so persisted dedupe indexes are rebuilt when it changes
+	@Getter
+	private final long hash;
+
+	private ModelFamilies(int[] models, int[] representatives, long hash)
+	{
+		this.models = models;
+		this.representatives = representatives;
+		this.hash = hash;
+	}
+
+	static ModelFamilies get()
+	{
+		return INSTANCE;
+	}
+
+	/**
+	 * @return the model id dedupe keys use for this model
+	 */
+	int representative(int modelId)
+	{
+		int i = Arrays.binarySearch(models, modelId);
+		return i < 0 ? modelId : representatives[i];
+	}
+
+	private static ModelFamilies load()
+	{
+		try (var is = ModelFamilies.class.getResourceAsStream(RESOURCE))
+		{
+			if (is == null)
+			{
+				throw new RuntimeException("Failed to find " + RESOURCE);
+			}
+			return parse(is);
+		}
+		catch (IOException | IllegalArgumentException e)
+		{
+			throw new RuntimeException("Failed to parse " + RESOURCE, e);
+		}
+	}
+
+	static ModelFamilies parse(InputStream in) throws IOException
+	{
+		// Union-find over model ids. The root of each set is the model seen first, which is the first id of the
+		// earliest line in the set.
+		Map<Integer, Integer> parent = new HashMap<>();
+		Map<Integer, Integer> order = new HashMap<>();
+		List<Integer> seen = new ArrayList<>();
+		long hash = 1;
+
+		var reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		String line;
+		while ((line = reader.readLine()) != null)
+		{
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#"))
+			{
+				continue;
+			}
+			Integer first = null;
+			for (String col : line.split(","))
+			{
+				int model;
+				try
+				{
+					model = Integer.parseInt(col.trim());
+				}
+				catch (NumberFormatException e)
+				{
+					throw new IllegalArgumentException("Malformed model family: " + line, e);
+				}
+				if (!parent.containsKey(model))
+				{
+					parent.put(model, model);
+					order.put(model, seen.size());
+					seen.add(model);
+				}
+				if (first == null)
+				{
+					first = model;
+				}
+				else
+				{
+					union(parent, order, first, model);
+				}
+				hash = hash * 31 + model;
+			}
+			hash = hash * 31 - 1;
+		}
+
+		var models = new int[seen.size()];
+		for (int i = 0; i < models.length; i++)
+		{
+			models[i] = seen.get(i);
+		}
+		Arrays.sort(models);
+		var representatives = new int[models.length];
+		for (int i = 0; i < models.length; i++)
+		{
+			representatives[i] = find(parent, models[i]);
+		}
+		return new ModelFamilies(models, representatives, hash);
+	}
+
+	private static int find(Map<Integer, Integer> parent, int model)
+	{
+		int root = model;
+		while (parent.get(root) != root)
+		{
+			root = parent.get(root);
+		}
+		while (model != root)
+		{
+			int next = parent.get(model);
+			parent.put(model, root);
+			model = next;
+		}
+		return root;
+	}
+
+	private static void union(Map<Integer, Integer> parent, Map<Integer, Integer> order, int a, int b)
+	{
+		int rootA = find(parent, a);
+		int rootB = find(parent, b);
+		if (rootA == rootB)
+		{
+			return;
+		}
+		if (order.get(rootA) < order.get(rootB))
+		{
+			parent.put(rootB, rootA);
+		}
+		else
+		{
+			parent.put(rootA, rootB);
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package io.huze.glamourer.item;
+
+import io.huze.glamourer.Config;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import lombok.Getter;
+
+/**
+ * LRU cache of the distinct, sorted face colors of models, and of items' merged model palettes, bounded together by
+ * {@link Config#modelCacheSize()}. Cached arrays are shared and must not be modified.
+ * <p>
+ * A palette signature (hash plus color count) is also kept for every model ever loaded. Signatures outlive eviction
+ * and let callers skip loading a model whose palette matches one they already have.
+ */
+@Singleton
+public class ModelPaletteCache
+{
+	// Rough cost of a map entry, its boxed key and the array header.
+	private static final int ENTRY_OVERHEAD_BYTES = 64;
+	// Set in the keys of item palettes, model palettes are keyed by the bare model id
+	private static final long ITEM_KEY = 1L << 32;
+
+	private final Config config;
+	private final LinkedHashMap<Long, short[]> palettes = new LinkedHashMap<>(256, 0.75f, true);
+	private final Map<Integer, Long> signatures = new HashMap<>();
+	private long sizeBytes;
+
+	@Getter
+	private long hits;
+	@Getter
+	private long misses;
+	@Getter
+	private long evictions;
+
+	@Inject
+	public ModelPaletteCache(Config config)
+	{
+		this.config = config;
+	}
+
+	public synchronized short[] get(int modelId, IntFunction<short[]> loader)
+	{
+		var palette = get(modelId, modelId, loader);
+		if (palette != null)
+		{
+			signatures.put(modelId, signatureOf(palette));
+		}
+		return palette;
+	}
+
+	/**
+	 * Like {@link #get(int, IntFunction)}, for the palette merged from all of an item's models.
+	 */
+	public synchronized short[] getItemPalette(int itemId, IntFunction<short[]> loader)
+	{
+		return get(ITEM_KEY | itemId, itemId, loader);
+	}
+
+	private short[] get(long key, int id, IntFunction<short[]> loader)
+	{
+		var palette = palettes.get(key);
+		if (palette != null)
+		{
+			hits++;
+			return palette;
+		}
+
+		misses++;
+		palette = loader.apply(id);
+		if (palette != null)
+		{
+			palettes.put(key, palette);
+			sizeBytes += sizeOf(palette);
+			trim();
+		}
+		return palette;
+	}
+
+	/**
+	 * @return the palette signature of a previously loaded model, or 0 if it has never been loaded
+	 */
+	public synchronized long getSignature(int modelId)
+	{
+		return signatures.getOrDefault(modelId, 0L);
+	}
+
+	public static long signatureOf(short[] palette)
+	{
+		// An empty palette hashes to 1, so a signature is never 0.
+		return (long) Arrays.hashCode(palette) << 32 | palette.length;
+	}
+
+	public synchronized void trim()
+	{
+		long budget = config.modelCacheSize() * 1024L;
+		var it = palettes.values().iterator();
+		while (sizeBytes > budget && it.hasNext())
+		{
+			sizeBytes -= sizeOf(it.next());
+			it.remove();
+			evictions++;
+		}
+	}
+
+	public synchronized void clear()
+	{
+		palettes.clear();
+		signatures.clear();
+		sizeBytes = 0;
+	}
+
+	private static long sizeOf(short[] palette)
+	{
+		return ENTRY_OVERHEAD_BYTES + (long) palette.length * Short.BYTES;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return String.format("%d palettes, %dKB, %d hits, %d misses, %d evictions",
+			palettes.size(), sizeBytes / 1024, hits, misses, evictions);
+	}
+}
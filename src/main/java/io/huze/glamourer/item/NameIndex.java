@@ -0,0 +1,81 @@
+package io.huze.glamourer.item;
+
+import java.util.BitSet;
+
+/**
+ * Lowercased item names from the item sheet, so search can find items without the client's item cache.
+ */
+final class NameIndex
+{
+	private final int idCount;
+	// Split lowercase name per item id, or null when the sheet has no name for it.
+	private final String[][] nameWords;
+
+	private NameIndex(int idCount, String[][] nameWords)
+	{
+		this.idCount = idCount;
+		this.nameWords = nameWords;
+	}
+
+	static NameIndex build(ItemTable table)
+	{
+		var nameWords = new String[table.idCount][];
+		for (int id = 0; id < table.idCount; id++)
+		{
+			String name = table.getName(id);
+			if (name != null)
+			{
+				nameWords[id] = splitWords(name.toLowerCase());
+			}
+		}
+		return new NameIndex(table.idCount, nameWords);
+	}
+
+	/**
+	 * @return ids of the items whose sheet name matches
+	 */
+	BitSet matching(String[] queryWords)
+	{
+		var result = new BitSet(idCount);
+		for (int id = 0; id < idCount; id++)
+		{
+			var words = nameWords[id];
+			if (words != null && matches(words, queryWords))
+			{
+				result.set(id);
+			}
+		}
+		return result;
+	}
+
+	static String[] splitWords(String lowerName)
+	{
+		return lowerName.split("\\s+");
+	}
+
+	// Each query word must match the start of at least one name word
+	static boolean matches(String[] nameWords, String[] queryWords)
+	{
+		for (String queryWord : queryWords)
+		{
+			if (queryWord.isEmpty())
+			{
+				continue;
+			}
+			boolean found = false;
+			for (String nameWord : nameWords)
+			{
+				if (nameWord.startsWith(queryWord))
+				{
+					found = true;
+					break;
+				}
+			}
+			if (!found)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+}
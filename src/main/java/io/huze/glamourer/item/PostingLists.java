@@ -0,0 +1,100 @@
+package io.huze.glamourer.item;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The posting lists of an inverted index: a list of ints per key, numbered from 0, all stored in one array. Lists are
+ * built with a single counting sort over every (key, value) occurrence, which keeps the values of a key in the order
+ * they were added.
+ */
+final class PostingLists
+{
+	// The list of key k is postings[start[k]] until start[k + 1]
+	private final int[] start;
+	private final int[] postings;
+
+	private PostingLists(int[] start, int[] postings)
+	{
+		this.start = start;
+		this.postings = postings;
+	}
+
+	/**
+	 * Collects occurrences until the number of keys is known.
+	 */
+	static final class Builder
+	{
+		private int count;
+		private int[] keys;
+		private int[] values;
+
+		Builder(int expectedCount)
+		{
+			keys = new int[Math.max(expectedCount, 16)];
+			values = new int[keys.length];
+		}
+
+		void add(int key, int value)
+		{
+			if (count == keys.length)
+			{
+				keys = Arrays.copyOf(keys, count * 2);
+				values = Arrays.copyOf(values, count * 2);
+			}
+			keys[count] = key;
+			values[count++] = value;
+		}
+
+		/**
+		 * @param keyRank the final key of each added key, or null to keep them as added
+		 */
+		PostingLists build(int keyCount, int[] keyRank)
+		{
+			var start = new int[keyCount + 1];
+			for (int i = 0; i < count; i++)
+			{
+				start[rank(keyRank, keys[i]) + 1]++;
+			}
+			for (int k = 0; k < keyCount; k++)
+			{
+				start[k + 1] += start[k];
+			}
+			var postings = new int[count];
+			var next = Arrays.copyOf(start, keyCount);
+			for (int i = 0; i < count; i++)
+			{
+				postings[next[rank(keyRank, keys[i])]++] = values[i];
+			}
+			return new PostingLists(start, postings);
+		}
+
+		private static int rank(int[] keyRank, int key)
+		{
+			return keyRank == null ? key : keyRank[key];
+		}
+	}
+
+	int start(int key)
+	{
+		return start[key];
+	}
+
+	int end(int key)
+	{
+		return start[key + 1];
+	}
+
+	int get(int posting)
+	{
+		return postings[posting];
+	}
+
+	void addTo(BitSet set, int key)
+	{
+		for (int p = start[key]; p < start[key + 1]; p++)
+		{
+			set.set(postings[p]);
+		}
+	}
+}
@@ -2,21 +2,12 @@ package io.huze.glamourer.item;
 
 import java.awt.image.BufferedImage;
 import lombok.Value;
-import net.runelite.api.ItemComposition;
 
 @Value
 public class SearchResult
 {
-	ItemComposition itemComposition;
+	int id;
+	String name;
+	// Null until loaded, see SearchService.loadIcons
 	BufferedImage icon;
-
-	public int getId()
-	{
-		return itemComposition.getId();
-	}
-
-	public String getName()
-	{
-		return itemComposition.getMembersName();
-	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,95 @@
+package io.huze.glamourer.item;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The matches of one search, handed out a page at a time in result order. Only what is handed out gets ordered: the
+ * first page is picked with a bounded heap, and the rest is only sorted once a second page is asked for.
+ */
+public class SearchResults
+{
+	private List<SearchResult> results;
+	private final Comparator<SearchResult> order;
+	private int delivered;
+	// Whether results after delivered are in order
+	private boolean sorted;
+
+	SearchResults(List<SearchResult> results, Comparator<SearchResult> order)
+	{
+		this.results = results;
+		this.order = order;
+	}
+
+	static SearchResults empty()
+	{
+		return new SearchResults(new ArrayList<>(), Comparator.comparingInt(SearchResult::getId));
+	}
+
+	public int size()
+	{
+		return results.size();
+	}
+
+	public synchronized boolean hasNext()
+	{
+		return delivered < results.size();
+	}
+
+	/**
+	 * @return up to {@code count} of the next results, without icons
+	 */
+	public synchronized List<SearchResult> next(int count)
+	{
+		int end = Math.min(delivered + count, results.size());
+		if (!sorted)
+		{
+			if (delivered == 0 && end < results.size())
+			{
+				results = selectFirst(count);
+			}
+			else
+			{
+				results.subList(delivered, results.size()).sort(order);
+				sorted = true;
+			}
+		}
+		var page = new ArrayList<>(results.subList(delivered, end));
+		delivered = end;
+		return page;
+	}
+
+	// The first count results in order, followed by the others in no particular order
+	private List<SearchResult> selectFirst(int count)
+	{
+		var heap = new PriorityQueue<SearchResult>(count + 1, order.reversed());
+		for (var result : results)
+		{
+			heap.add(result);
+			if (heap.size() > count)
+			{
+				heap.poll();
+			}
+		}
+		var reordered = new ArrayList<SearchResult>(results.size());
+		reordered.addAll(heap);
+		reordered.sort(order);
+		// Result ids are unique
+		var selected = new BitSet();
+		for (var result : reordered)
+		{
+			selected.set(result.getId());
+		}
+		for (var result : results)
+		{
+			if (!selected.get(result.getId()))
+			{
+				reordered.add(result);
+			}
+		}
+		return reordered;
+	}
+}
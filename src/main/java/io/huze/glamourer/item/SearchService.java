@@ -1,161 +1,429 @@
 package io.huze.glamourer.item;
 
+import io.huze.glamourer.Extensions;
+import io.huze.glamourer.color.Colors;
 import io.huze.glamourer.ui.Ordering;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Comparator;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.function.Function;
-import javax.annotation.Nullable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.api.Client;
-import net.runelite.api.ItemComposition;
-import net.runelite.client.util.AsyncBufferedImage;
+import net.runelite.client.callback.ClientThread;
 
 @Slf4j
 @Singleton
 public class SearchService
 {
+	public static final long ANY_TIME_FROM = Long.MIN_VALUE;
+	public static final long ANY_TIME_TO = Long.MAX_VALUE;
+	public static final int ANY_COLOR = -1;
+	// Furthest Colors.calculateColorDistance from the searched color which still matches
+	private static final double COLOR_MATCH_DISTANCE = 0.05;
 	private static final Comparator<SearchResult> ALPHA_COMPARATOR = Comparator.comparing(SearchResult::getName);
 	private static final Comparator<SearchResult> REVERSE_ALPHA_COMPARATOR = ALPHA_COMPARATOR.reversed();
+	private static final Comparator<SearchResult> ID_COMPARATOR = Comparator.comparingInt(SearchResult::getId);
+	// Icons fetched per client frame
+	private static final int ICON_BATCH_SIZE = 32;
+	private static final int QUERY_CACHE_SIZE = 16;
 
 	private final Client client;
+	private final ClientThread clientThread;
 	private final DedupeItemManager itemManager;
 	private final ItemSheet itemSheet;
+	// Null until the first buildIndex finishes, which needs the dedupe index
+	private volatile SearchSnapshot snapshot;
+	// Name matches of recent queries against cachedSnapshot, least recently used first
+	private final LinkedHashMap<String, CachedQuery> queryCache = new LinkedHashMap<>(QUERY_CACHE_SIZE, 0.75f, true);
+	private SearchSnapshot cachedSnapshot;
+	// Bumped on the client thread by each buildIndex, so an outdated build stops
+	private volatile int indexGeneration;
+	// Items the color index should cover, from the last buildIndex, or null before it
+	private volatile int[] colorItemIds;
+	// Built on the first color search, for the colorItemIds it was built from
+	private volatile ColorIndex colorIndex;
+	private volatile int[] colorIndexItemIds;
+	private final AtomicBoolean colorIndexLoading = new AtomicBoolean();
+
+	private static class CachedQuery
+	{
+		final String[] words;
+		final BitSet ids;
+		final int count;
+
+		CachedQuery(String[] words, BitSet ids)
+		{
+			this.words = words;
+			this.ids = ids;
+			count = ids.cardinality();
+		}
+	}
 
 	@Inject
-	public SearchService(Client client, DedupeItemManager itemManager, ItemSheet itemSheet)
+	public SearchService(Client client, ClientThread clientThread, DedupeItemManager itemManager, ItemSheet itemSheet)
 	{
 		this.client = client;
+		this.clientThread = clientThread;
 		this.itemManager = itemManager;
 		this.itemSheet = itemSheet;
 	}
 
-	public List<SearchResult> search(String query, Ordering sortOrder, boolean includeQuest, boolean includeUncommon,
-									 @Nullable Function<ItemComposition, Boolean> filter)
+	/**
+	 * Searches the snapshot taken by {@link #buildIndex}, so it is safe to call from any thread. Results are only
+	 * ordered as their pages are requested, and have no icons; see {@link #loadIcons}.
+	 *
+	 * @param color        only include items whose palette has a color close to this packed HSL color, or
+	 *                     {@link #ANY_COLOR}. Finds nothing until {@link #prepareColorSearch} returns true.
+	 * @param fuzzy        also include items whose names are a few typos away from the query, best matches first
+	 * @param addedIds     items already added to the plate, which {@link Ordering#RELEVANCE} puts last
+	 * @param releasedFrom only include items released at or after this time, in epoch seconds
+	 * @param releasedTo only include items released before this time, in epoch seconds
+	 */
+	public SearchResults search(String query, int color, Ordering sortOrder, boolean fuzzy, Set<Integer> addedIds,
+								boolean includeQuest, boolean includeUncommon, long releasedFrom, long releasedTo)
 	{
 		List<SearchResult> results = new ArrayList<>();
-		String lowerQuery = query.trim().toLowerCase();
-		Set<Integer> seenIds = new HashSet<>();
-		Set<Integer> skippedIds = buildSkipSet(includeQuest, includeUncommon);
+		String[] queryWords = query.trim().toLowerCase().split("\\s+");
+		BitSet skippedIds = itemSheet.getSkipMask(includeQuest, includeUncommon);
+		var snapshot = this.snapshot;
 
-		for (int i = 0; i < client.getItemCount(); i++)
+		BitSet candidates = snapshot != null ? matching(snapshot, queryWords) : itemSheet.getItemsMatchingName(queryWords);
+		if (candidates == null)
 		{
-			ItemComposition comp = getItemCompositionSafe(i, skippedIds);
-			if (comp == null)
+			log.debug("Search before the search index is built, and the item sheet has no names");
+			return SearchResults.empty();
+		}
+		// Result ids of the items with the color
+		BitSet colorIds = null;
+		if (color != ANY_COLOR)
+		{
+			var index = colorIndex;
+			if (index == null)
 			{
-				continue;
+				log.debug("Color search before the color index is built, see prepareColorSearch");
+				return SearchResults.empty();
 			}
+			colorIds = index.matching(color, COLOR_MATCH_DISTANCE);
+		}
+		// Edit distance per fuzzily matched canonical id, exact matches have none
+		Map<Integer, Integer> distances = null;
+		if (fuzzy && snapshot != null)
+		{
+			distances = new HashMap<>();
+			for (var match : snapshot.fuzzyMatching(query))
+			{
+				if (!candidates.get(match.getItemId()))
+				{
+					candidates.set(match.getItemId());
+					distances.put(match.getItemId(), match.getDistance());
+				}
+			}
+		}
+		candidates.andNot(skippedIds);
+		// With a release window, only keep the sheet items inside it.
+		if (releasedFrom != ANY_TIME_FROM || releasedTo != ANY_TIME_TO)
+		{
+			candidates.and(itemSheet.getItemsReleasedBetween(releasedFrom, releasedTo));
+		}
 
-			if (isValidResult(comp, lowerQuery, filter, seenIds))
+		BitSet seenIds = new BitSet();
+		Map<Integer, Integer> resultDistances = new HashMap<>();
+		// Relevance rank per result id, lower first, see SearchSnapshot.rank
+		Map<Integer, Long> resultRanks = new HashMap<>();
+		boolean rankResults = sortOrder == Ordering.RELEVANCE && snapshot != null;
+		for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1))
+		{
+			// Until the snapshot exists, fall back to the undeduplicated sheet names
+			int resultId = snapshot != null ? snapshot.getResultId(i) : i;
+			if (!seenIds.get(resultId) && (colorIds == null || colorIds.get(resultId)))
 			{
-				seenIds.add(comp.getId());
-				addSearchResult(results, comp);
+				seenIds.set(resultId);
+				if (distances != null)
+				{
+					resultDistances.put(resultId, distances.getOrDefault(i, 0));
+				}
+				if (rankResults)
+				{
+					// Items already on the plate rank below every other match
+					long added = addedIds.contains(resultId) ? 1L << 48 : 0;
+					resultRanks.put(resultId, added | snapshot.rank(i, queryWords));
+				}
+				results.add(new SearchResult(resultId, snapshot != null ? snapshot.getName(i) : itemSheet.getItemName(i), null));
 			}
 		}
 
-		if (sortOrder == Ordering.ALPHABETICAL)
+		Comparator<SearchResult> order = ID_COMPARATOR;
+		if (rankResults)
+		{
+			order = Comparator.<SearchResult>comparingLong(r -> resultRanks.get(r.getId())).thenComparing(ALPHA_COMPARATOR);
+		}
+		else if (sortOrder == Ordering.ALPHABETICAL || sortOrder == Ordering.RELEVANCE)
 		{
-			results.sort(ALPHA_COMPARATOR);
+			order = ALPHA_COMPARATOR;
 		}
 		else if (sortOrder == Ordering.REVERSE_ALPHABETICAL)
 		{
-			results.sort(REVERSE_ALPHA_COMPARATOR);
+			order = REVERSE_ALPHA_COMPARATOR;
 		}
-
-		return results;
+		if (!resultDistances.isEmpty())
+		{
+			// The chosen ordering still applies between equally close matches
+			order = Comparator.<SearchResult>comparingInt(r -> resultDistances.get(r.getId())).thenComparing(order);
+		}
+		// Ids break ties, so each page is the same whichever way the rest is ordered
+		return new SearchResults(results, order.thenComparing(ID_COMPARATOR));
 	}
 
-	private Set<Integer> buildSkipSet(boolean includeQuest, boolean includeUncommon)
+	/**
+	 * @return a new set of the canonical ids whose names match. A query which narrows a recent one, e.g. "drag" after
+	 * "dra", only filters that query's matches instead of going back to the index.
+	 */
+	private synchronized BitSet matching(SearchSnapshot snapshot, String[] queryWords)
 	{
-		Set<Integer> skips = new HashSet<>(itemSheet.getRemovedItemIds());
-		if (!includeQuest)
+		if (snapshot != cachedSnapshot)
 		{
-			skips.addAll(itemSheet.getQuestItemIds());
+			queryCache.clear();
+			cachedSnapshot = snapshot;
 		}
-		if (!includeUncommon)
+		String key = String.join(" ", queryWords);
+		var cached = queryCache.get(key);
+		if (cached == null)
 		{
-			skips.addAll(itemSheet.getUncommonItemIds());
+			CachedQuery base = null;
+			for (var query : queryCache.values())
+			{
+				if (narrows(queryWords, query.words) && (base == null || query.count < base.count))
+				{
+					base = query;
+				}
+			}
+
+			BitSet ids;
+			if (base == null)
+			{
+				ids = snapshot.matching(queryWords);
+			}
+			else
+			{
+				ids = new BitSet();
+				for (int i = base.ids.nextSetBit(0); i >= 0; i = base.ids.nextSetBit(i + 1))
+				{
+					if (snapshot.matches(i, queryWords))
+					{
+						ids.set(i);
+					}
+				}
+			}
+			cached = new CachedQuery(queryWords, ids);
+			queryCache.put(key, cached);
+			if (queryCache.size() > QUERY_CACHE_SIZE)
+			{
+				queryCache.remove(queryCache.keySet().iterator().next());
+			}
 		}
-		return skips;
+		return (BitSet) cached.ids.clone();
 	}
 
-	private ItemComposition getItemCompositionSafe(int itemIndex, Set<Integer> skippedIds)
+	// Whether everything matching queryWords also matches previousWords: each previous word prefixes a query word.
+	// A previous query without words matches everything, so narrowing it would gain nothing.
+	private static boolean narrows(String[] queryWords, String[] previousWords)
 	{
-		try
+		boolean anyWord = false;
+		for (var previous : previousWords)
 		{
-			int canonical = itemManager.canonicalize(itemIndex);
-			if (skippedIds.contains(canonical))
+			if (previous.isEmpty())
 			{
-				return null;
+				continue;
+			}
+			anyWord = true;
+			boolean found = false;
+			for (var word : queryWords)
+			{
+				if (word.startsWith(previous))
+				{
+					found = true;
+					break;
+				}
+			}
+			if (!found)
+			{
+				return false;
 			}
-			return itemManager.getItemComposition(canonical);
-		}
-		catch (Exception e)
-		{
-			log.debug("Failed to get item composition for item {}", itemIndex, e);
-			return null;
 		}
+		return anyWord;
 	}
 
-	private boolean isValidResult(ItemComposition comp, String query,
-								  @Nullable Function<ItemComposition, Boolean> filter, Set<Integer> seenIds)
+	/**
+	 * Fetches the icons of search results on the client thread, {@value #ICON_BATCH_SIZE} per frame, then passes the
+	 * results with their icons to {@code onLoaded} on the client thread. Results whose icon fails to load are dropped.
+	 */
+	public void loadIcons(List<SearchResult> results, Consumer<List<SearchResult>> onLoaded)
 	{
-		return !comp.getMembersName().isEmpty()
-			&& !comp.getMembersName().equals("null")
-			&& !seenIds.contains(comp.getId())
-			&& matchesQuery(comp, query, filter);
+		var loaded = new ArrayList<SearchResult>(results.size());
+		var next = new int[1];
+		clientThread.invokeLater(() -> {
+			int end = Math.min(next[0] + ICON_BATCH_SIZE, results.size());
+			for (; next[0] < end; next[0]++)
+			{
+				var result = results.get(next[0]);
+				try
+				{
+					loaded.add(new SearchResult(result.getId(), result.getName(), itemManager.getImage(result.getId())));
+				}
+				catch (Exception e)
+				{
+					log.debug("Failed to get image for item {}", result.getId(), e);
+				}
+			}
+			if (next[0] < results.size())
+			{
+				return false;
+			}
+			onLoaded.accept(loaded);
+			return true;
+		});
 	}
 
-	private void addSearchResult(List<SearchResult> results, ItemComposition comp)
+	/**
+	 * Snapshots the name of every searchable canonical item on the client thread, a few milliseconds per frame, then
+	 * indexes them off it. Must be called on the client thread once the dedupe index is built, and again whenever it
+	 * changes. Searches keep using the previous snapshot until the new one is published.
+	 */
+	public void buildIndex()
 	{
-		try
-		{
-			AsyncBufferedImage image = itemManager.getImage(comp.getId());
-			results.add(new SearchResult(comp, image));
-		}
-		catch (Exception e)
-		{
-			log.debug("Failed to get image for item {}", comp.getId(), e);
-		}
+		int generation = ++indexGeneration;
+		long startTime = System.nanoTime();
+		int itemCount = client.getItemCount();
+		var ids = new int[itemCount];
+		var resultIds = new int[itemCount];
+		var names = new String[itemCount];
+		var count = new int[1];
+		var slice = new TimeSlice(0, itemCount, false);
+		clientThread.invokeLater(() -> {
+			if (generation != indexGeneration)
+			{
+				return true;
+			}
+			boolean done = slice.run(i -> {
+				try
+				{
+					if (itemManager.canonicalize(i) != i)
+					{
+						return;
+					}
+					var comp = itemManager.getItemComposition(i);
+					String name = comp.getMembersName();
+					if (name.isEmpty() || name.equals("null"))
+					{
+						return;
+					}
+					ids[count[0]] = i;
+					resultIds[count[0]] = comp.getId();
+					names[count[0]++] = name;
+				}
+				catch (Exception e)
+				{
+					log.debug("Failed to index item {}", i, e);
+				}
+			});
+			if (!done)
+			{
+				return false;
+			}
+			int n = count[0];
+			colorItemIds = Arrays.stream(resultIds, 0, n).sorted().distinct().toArray();
+			CompletableFuture.runAsync(() -> {
+				var built = SearchSnapshot.build(itemCount,
+					Arrays.copyOf(ids, n), Arrays.copyOf(resultIds, n), Arrays.copyOf(names, n));
+				if (generation == indexGeneration)
+				{
+					snapshot = built;
+					log.debug("Search index of {} items took {}ms", n, (System.nanoTime() - startTime) / 1_000_000);
+				}
+			});
+			return true;
+		});
 	}
 
-	private boolean matchesQuery(ItemComposition itemComposition, String query,
-								 @Nullable Function<ItemComposition, Boolean> filter)
+	/**
+	 * Color searches need every palette, which is too much model loading to do unless the player searches by color,
+	 * so the color index is only built once this is first called, and again once buildIndex has changed the items.
+	 *
+	 * @return whether the color index is up to date; if not, it is being built and this should be asked again
+	 */
+	public boolean prepareColorSearch()
 	{
-		if (filter != null && !filter.apply(itemComposition))
+		var itemIds = colorItemIds;
+		if (itemIds == null)
 		{
 			return false;
 		}
-
-		String fullName = itemComposition.getMembersName().toLowerCase();
-		String[] nameWords = fullName.split("\\s+");
-		String[] queryWords = query.split("\\s+");
-
-		// Each query word must match the start of at least one name word
-		for (String queryWord : queryWords)
+		if (colorIndexItemIds == itemIds)
 		{
-			if (queryWord.isEmpty())
+			return true;
+		}
+		if (colorIndexLoading.compareAndSet(false, true))
+		{
+			loadColorIndex(itemIds);
+		}
+		return false;
+	}
+
+	/**
+	 * Indexes the palettes of the given items by color, with each item's own color replacements applied so the colors
+	 * are the ones the item has in game, whatever glamour is on it. Palettes missing from the item sheet need their models loaded, so they are
+	 * fetched on the client thread a few milliseconds per frame, and the index is built off it.
+	 */
+	private void loadColorIndex(int[] itemIds)
+	{
+		long startTime = System.nanoTime();
+		var palettes = new short[itemIds.length][];
+		var slice = new TimeSlice(0, itemIds.length, true);
+		clientThread.invokeLater(() -> {
+			// Items changed meanwhile, the next prepareColorSearch starts over
+			if (colorItemIds != itemIds)
 			{
-				continue;
+				colorIndexLoading.set(false);
+				return true;
 			}
-			boolean found = false;
-			for (String nameWord : nameWords)
-			{
-				if (nameWord.startsWith(queryWord))
+			boolean done = slice.run(i -> {
+				try
 				{
-					found = true;
-					break;
+					var comp = itemManager.getItemComposition(itemIds[i]);
+					palettes[i] = Extensions.sortedDistinct(Colors.recolor(itemSheet.getPalette(itemIds[i]),
+						comp.getOriginalColorToReplace(), comp.getOriginalColorToReplaceWith()));
 				}
-			}
-			if (!found)
+				catch (Exception e)
+				{
+					log.debug("Failed to get palette for item {}", itemIds[i], e);
+				}
+			});
+			if (!done)
 			{
 				return false;
 			}
-		}
-		return true;
+			CompletableFuture.runAsync(() -> {
+				colorIndex = ColorIndex.build(itemIds, palettes);
+				colorIndexItemIds = itemIds;
+				colorIndexLoading.set(false);
+				log.debug("Color index of {} items took {}ms", itemIds.length, (System.nanoTime() - startTime) / 1_000_000);
+			});
+			return true;
+		});
+	}
+
+	public int[] getReleaseYearRange()
+	{
+		return itemSheet.getReleaseYearRange();
 	}
 }
@@ -0,0 +1,127 @@
+package io.huze.glamourer.item;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Immutable copy of everything a search reads from the client: the searchable canonical item ids, the item each one
+ * shows as once deduplicated, and its name. Built on the client thread and then safe to query from any thread.
+ */
+final class SearchSnapshot
+{
+	// Index into the arrays below per canonical item id, or -1 if the item is not searchable
+	private final int[] positions;
+	private final int[] resultIds;
+	private final String[] names;
+	private final String[][] nameWords;
+	private final WordIndex words;
+	private final FuzzyIndex fuzzy;
+
+	private SearchSnapshot(int[] positions, int[] resultIds, String[] names, String[][] nameWords, WordIndex words,
+						   FuzzyIndex fuzzy)
+	{
+		this.positions = positions;
+		this.resultIds = resultIds;
+		this.names = names;
+		this.nameWords = nameWords;
+		this.words = words;
+		this.fuzzy = fuzzy;
+	}
+
+	/**
+	 * @param canonicalIds ascending canonical item ids
+	 * @param resultIds    per canonical id, the id of its dedupe group's item
+	 * @param names        per canonical id, the members name of its dedupe group's item
+	 */
+	static SearchSnapshot build(int itemCount, int[] canonicalIds, int[] resultIds, String[] names)
+	{
+		var positions = new int[itemCount];
+		Arrays.fill(positions, -1);
+		var nameWords = new String[canonicalIds.length][];
+		for (int i = 0; i < canonicalIds.length; i++)
+		{
+			positions[canonicalIds[i]] = i;
+			nameWords[i] = NameIndex.splitWords(names[i].toLowerCase());
+		}
+		return new SearchSnapshot(positions, resultIds, names, nameWords, WordIndex.build(canonicalIds, nameWords),
+			FuzzyIndex.build(canonicalIds, names));
+	}
+
+	/**
+	 * @return matching canonical item ids, see {@link WordIndex#matching}
+	 */
+	BitSet matching(String[] queryWords)
+	{
+		return words.matching(queryWords);
+	}
+
+	/**
+	 * @return canonical items whose names nearly contain the query, see {@link FuzzyIndex#matching}
+	 */
+	List<FuzzyIndex.Match> fuzzyMatching(String query)
+	{
+		return fuzzy.matching(query);
+	}
+
+	/**
+	 * @return whether the item's name matches, see {@link NameIndex#matches}
+	 */
+	boolean matches(int canonicalId, String[] queryWords)
+	{
+		return NameIndex.matches(nameWords[positions[canonicalId]], queryWords);
+	}
+
+	/**
+	 * Ranks a matching name, lower first. Names containing more of the query words in full come first, then names
+	 * starting with the first query word, names where a query word matches earlier, and finally shorter names.
+	 */
+	long rank(int canonicalId, String[] queryWords)
+	{
+		int position = positions[canonicalId];
+		var words = nameWords[position];
+		int partialWords = 0;
+		boolean startsName = false;
+		int firstMatch = words.length;
+		boolean firstWord = true;
+		for (var queryWord : queryWords)
+		{
+			if (queryWord.isEmpty())
+			{
+				continue;
+			}
+			if (firstWord)
+			{
+				startsName = words.length > 0 && words[0].startsWith(queryWord);
+				firstWord = false;
+			}
+			boolean exact = false;
+			for (int i = 0; i < words.length; i++)
+			{
+				if (words[i].startsWith(queryWord))
+				{
+					exact |= words[i].length() == queryWord.length();
+					firstMatch = Math.min(firstMatch, i);
+				}
+			}
+			if (!exact)
+			{
+				partialWords++;
+			}
+		}
+		long rank = Math.min(partialWords, 0xFF);
+		rank = rank << 1 | (startsName ? 0 : 1);
+		rank = rank << 8 | Math.min(firstMatch, 0xFF);
+		return rank << 16 | Math.min(names[position].length(), 0xFFFF);
+	}
+
+	int getResultId(int canonicalId)
+	{
+		return resultIds[positions[canonicalId]];
+	}
+
+	String getName(int canonicalId)
+	{
+		return names[positions[canonicalId]];
+	}
+}
@@ -0,0 +1,47 @@
+package io.huze.glamourer.item;
+
+import java.util.function.IntConsumer;
+
+/**
+ * A run of client thread steps spread over frames, so no frame spends more than {@link #BUDGET_NANOS} on them. Call
+ * {@link #run} once per frame until it returns true.
+ */
+final class TimeSlice
+{
+	static final long BUDGET_NANOS = 2_000_000;
+	// Cheap steps between clock reads
+	private static final int CHECK_MASK = 63;
+
+	private final int end;
+	private final int checkMask;
+	private int next;
+
+	/**
+	 * @param costlySteps whether each step may take long enough that the clock should be read after every one
+	 */
+	TimeSlice(int start, int end, boolean costlySteps)
+	{
+		this.end = end;
+		checkMask = costlySteps ? 0 : CHECK_MASK;
+		next = start;
+	}
+
+	/**
+	 * Runs the next steps until they are all done or this frame's budget is spent.
+	 *
+	 * @return whether every step has run
+	 */
+	boolean run(IntConsumer step)
+	{
+		long deadline = System.nanoTime() + BUDGET_NANOS;
+		while (next < end)
+		{
+			step.accept(next++);
+			if ((next & checkMask) == 0 && System.nanoTime() >= deadline)
+			{
+				break;
+			}
+		}
+		return next >= end;
+	}
+}
@@ -0,0 +1,114 @@
+package io.huze.glamourer.item;
+
+import io.huze.glamourer.Extensions;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Inverted index from the lowercase words of item names to the ids of the items whose names contain them. Words are
+ * kept sorted, so all the words starting with a query word form one contiguous range.
+ */
+final class WordIndex
+{
+	private final BitSet ids;
+	private final String[] words;
+	// Item ids per index in words, ascending
+	private final PostingLists postings;
+
+	private WordIndex(BitSet ids, String[] words, PostingLists postings)
+	{
+		this.ids = ids;
+		this.words = words;
+		this.postings = postings;
+	}
+
+	/**
+	 * @param itemIds   ascending item ids
+	 * @param nameWords the split lowercase name of each item, see {@link NameIndex#splitWords}
+	 */
+	static WordIndex build(int[] itemIds, String[][] nameWords)
+	{
+		var ids = new BitSet();
+		Map<String, Integer> wordIds = new HashMap<>();
+		// Added in ascending item order
+		var occurrences = new PostingLists.Builder(itemIds.length * 2);
+		for (int i = 0; i < itemIds.length; i++)
+		{
+			ids.set(itemIds[i]);
+			var words = nameWords[i];
+			for (int j = 0; j < words.length; j++)
+			{
+				var word = words[j];
+				if (word.isEmpty() || Extensions.indexOf(words, 0, j, word) >= 0)
+				{
+					continue;
+				}
+				occurrences.add(wordIds.computeIfAbsent(word, w -> wordIds.size()), itemIds[i]);
+			}
+		}
+
+		var words = wordIds.keySet().toArray(new String[0]);
+		Arrays.sort(words);
+		var rank = new int[words.length];
+		for (int i = 0; i < words.length; i++)
+		{
+			rank[wordIds.get(words[i])] = i;
+		}
+		return new WordIndex(ids, words, occurrences.build(words.length, rank));
+	}
+
+	/**
+	 * @param queryWords lowercase query words which must each prefix a word of the name
+	 * @return a new set of the ids of matching items, or of every indexed item if there are no query words
+	 */
+	BitSet matching(String[] queryWords)
+	{
+		BitSet result = null;
+		for (var queryWord : queryWords)
+		{
+			if (queryWord.isEmpty())
+			{
+				continue;
+			}
+			var matches = new BitSet();
+			for (int i = lowerBound(queryWord); i < words.length && words[i].startsWith(queryWord); i++)
+			{
+				postings.addTo(matches, i);
+			}
+			if (result == null)
+			{
+				result = matches;
+			}
+			else
+			{
+				result.and(matches);
+			}
+			if (result.isEmpty())
+			{
+				break;
+			}
+		}
+		return result == null ? (BitSet) ids.clone() : result;
+	}
+
+	private int lowerBound(String word)
+	{
+		int lo = 0;
+		int hi = words.length;
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (words[mid].compareTo(word) < 0)
+			{
+				lo = mid + 1;
+			}
+			else
+			{
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+}
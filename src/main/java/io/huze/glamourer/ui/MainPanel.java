@@ -47,7 +47,7 @@ public class MainPanel extends PluginPanel
 		plateManagerPanel = new PlateManagerPanel(clientThread, plateManager, glamourer, config, this::showSearchPanelForPlate);
 
 		// Create search panel with item selection callback
-		searchPanel = new SearchPanel(clientThread, searchService, executor, config,
+		searchPanel = new SearchPanel(searchService, executor, config,
 			this::onItemSelectedFromSearch, this::hideSearchPanel);
 
 		add(plateManagerPanel, CARD_PLATES);
@@ -5,6 +5,7 @@ import lombok.AllArgsConstructor;
 @AllArgsConstructor
 public enum Ordering
 {
+	RELEVANCE("Relevance"),
 	ALPHABETICAL("A to Z"),
 	REVERSE_ALPHABETICAL("Z to A"),
 	ITEM_ID("Item ID");
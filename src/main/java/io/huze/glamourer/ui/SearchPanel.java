@@ -2,8 +2,11 @@ package io.huze.glamourer.ui;
 
 import com.google.common.base.Strings;
 import io.huze.glamourer.Config;
+import io.huze.glamourer.color.Colors;
 import io.huze.glamourer.item.SearchService;
 import io.huze.glamourer.item.SearchResult;
+import io.huze.glamourer.item.SearchResults;
+import io.huze.glamourer.ui.colorpicker.HslColorPicker;
 import java.awt.BorderLayout;
 import java.awt.CardLayout;
 import java.awt.Color;
@@ -13,6 +16,8 @@ import javax.swing.BoxLayout;
 import java.awt.event.ItemEvent;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
@@ -26,6 +31,7 @@ import javax.swing.JButton;
 import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.ScrollPaneConstants;
@@ -34,7 +40,7 @@ import javax.swing.border.EmptyBorder;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import lombok.extern.slf4j.Slf4j;
-import net.runelite.client.callback.ClientThread;
+import net.runelite.api.JagexColor;
 import net.runelite.client.ui.ColorScheme;
 import net.runelite.client.ui.components.IconTextField;
 import net.runelite.client.ui.components.PluginErrorPanel;
@@ -46,8 +52,14 @@ class SearchPanel extends JPanel
 	private static final String CARD_INFO = "INFO";
 	private static final String CARD_RESULTS = "RESULTS";
 	private static final int DEBOUNCE_MS = 200;
+	private static final String ANY_YEAR = "Any";
+	private static final String ANY_COLOR = "Any";
+	// Pure red, where the color picker starts before a color is chosen
+	private static final short DEFAULT_PICKER_COLOR = JagexColor.packHSL(0, Colors.MAX_SAT, 64);
+	private static final int PAGE_SIZE = 50;
+	// How close to the bottom, in pixels, scrolling loads the next page
+	private static final int PAGE_THRESHOLD = 200;
 
-	private final ClientThread clientThread;
 	private final SearchService searchService;
 	private final ScheduledExecutorService executor;
 	private final Consumer<Integer> onItemSelected;
@@ -60,29 +72,39 @@ class SearchPanel extends JPanel
 	private final JPanel cardPanel;
 	private final PluginErrorPanel infoPanel;
 	private final AtomicBoolean searching;
+	private final AtomicBoolean loadingPage;
 	private final Runnable onCancel;
 
 	private Future<?> pendingSearch;
+	// Results whose first page is shown, null when there are none. Only changed on the event dispatch thread.
+	private volatile SearchResults results;
 	private Ordering ordering;
+	private boolean fuzzy;
 	private boolean includeQuest;
 	private boolean includeUncommon;
+	// 0 for any release year
+	private int releaseYear;
+	// Packed HSL color, or SearchService.ANY_COLOR
+	private int color;
 	private Set<Integer> alreadyAddedIds;
 
 	@Inject
-	public SearchPanel(ClientThread clientThread, SearchService searchService, ScheduledExecutorService executor, Config config, Consumer<Integer> onItemSelected, Runnable onCancel)
+	public SearchPanel(SearchService searchService, ScheduledExecutorService executor, Config config, Consumer<Integer> onItemSelected, Runnable onCancel)
 	{
-		this.clientThread = clientThread;
 		this.searchService = searchService;
 		this.executor = executor;
 		this.config = config;
 		this.onItemSelected = onItemSelected;
 		this.onCancel = onCancel;
 
-		this.ordering = Ordering.ALPHABETICAL;
+		this.ordering = Ordering.RELEVANCE;
+		this.fuzzy = false;
 		this.includeQuest = false;
 		this.includeUncommon = false;
+		this.color = SearchService.ANY_COLOR;
 		this.alreadyAddedIds = Collections.emptySet();
 		this.searching = new AtomicBoolean(false);
+		this.loadingPage = new AtomicBoolean(false);
 
 		this.searchField = new IconTextField();
 		this.resultsContainer = new ScrollablePanel();
@@ -131,6 +153,7 @@ class SearchPanel extends JPanel
 			searchField.setText("");
 		}
 		SwingUtilities.invokeLater(() -> {
+			results = null;
 			SwingUtil.fastRemoveAll(resultsContainer);
 			resultsContainer.updateUI();
 			infoPanel.setContent("Item Search", "Search for items to add to your plate.");
@@ -181,6 +204,13 @@ class SearchPanel extends JPanel
 		pane.setBackground(ColorScheme.DARK_GRAY_COLOR);
 		pane.getVerticalScrollBar().setPreferredSize(new Dimension(10, 0));
 		pane.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
+		pane.getVerticalScrollBar().addAdjustmentListener(e -> {
+			var bar = pane.getVerticalScrollBar();
+			if (bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - PAGE_THRESHOLD)
+			{
+				loadNextPage();
+			}
+		});
 		return pane;
 	}
 
@@ -231,8 +261,11 @@ class SearchPanel extends JPanel
 		controlsPanel.setBackground(ColorScheme.DARK_GRAY_COLOR);
 
 		controlsPanel.add(createSortRow());
+		controlsPanel.add(createFuzzyRow());
 		controlsPanel.add(createQuestFilterRow());
 		controlsPanel.add(createUncommonFilterRow());
+		controlsPanel.add(createReleaseYearRow());
+		controlsPanel.add(createColorRow());
 		controlsPanel.add(createSearchRow());
 
 		headerWrapper.add(controlsPanel, BorderLayout.CENTER);
@@ -279,6 +312,30 @@ class SearchPanel extends JPanel
 		return row;
 	}
 
+	private JPanel createFuzzyRow()
+	{
+		JPanel row = new JPanel(new BorderLayout());
+		row.setBorder(new EmptyBorder(5, 0, 0, 0));
+		row.setBackground(ColorScheme.DARK_GRAY_COLOR);
+
+		JLabel label = new JLabel("Fuzzy matching");
+		label.setForeground(Color.WHITE);
+		row.add(label, BorderLayout.WEST);
+
+		JCheckBox checkbox = new JCheckBox();
+		checkbox.setSelected(fuzzy);
+		checkbox.setToolTipText("Also include items with names close to the search, closest first");
+		checkbox.setBackground(ColorScheme.DARK_GRAY_COLOR);
+		checkbox.addActionListener(e -> {
+			fuzzy = checkbox.isSelected();
+			triggerSearch();
+		});
+		row.add(checkbox, BorderLayout.EAST);
+
+		row.setMaximumSize(new Dimension(Integer.MAX_VALUE, row.getPreferredSize().height));
+		return row;
+	}
+
 	private JPanel createQuestFilterRow()
 	{
 		JPanel row = new JPanel(new BorderLayout());
@@ -327,18 +384,122 @@ class SearchPanel extends JPanel
 		return row;
 	}
 
+	private JPanel createReleaseYearRow()
+	{
+		JPanel row = new JPanel(new GridLayout(1, 2));
+		row.setBorder(new EmptyBorder(5, 0, 0, 0));
+		row.setBackground(ColorScheme.DARK_GRAY_COLOR);
+
+		JLabel label = new JLabel("Released");
+		label.setForeground(Color.WHITE);
+		label.setMaximumSize(new Dimension(0, 0));
+		label.setPreferredSize(new Dimension(0, 0));
+		row.add(label);
+
+		JComboBox<String> combo = new JComboBox<>();
+		combo.addItem(ANY_YEAR);
+		int[] years = searchService.getReleaseYearRange();
+		for (int year = years[0]; year <= years[1]; year++)
+		{
+			combo.addItem(String.valueOf(year));
+		}
+		combo.setToolTipText("Only include items released in this year");
+		combo.setPreferredSize(new Dimension(combo.getPreferredSize().width, 25));
+		combo.setForeground(Color.WHITE);
+		combo.setFocusable(false);
+		combo.addItemListener(e -> {
+			if (e.getStateChange() == ItemEvent.SELECTED)
+			{
+				var selected = (String) combo.getSelectedItem();
+				releaseYear = ANY_YEAR.equals(selected) ? 0 : Integer.parseInt(selected);
+				triggerSearch();
+			}
+		});
+		row.add(combo);
+
+		row.setMaximumSize(new Dimension(Integer.MAX_VALUE, row.getPreferredSize().height));
+		return row;
+	}
+
+	private JPanel createColorRow()
+	{
+		JPanel row = new JPanel(new GridLayout(1, 2));
+		row.setBorder(new EmptyBorder(5, 0, 0, 0));
+		row.setBackground(ColorScheme.DARK_GRAY_COLOR);
+
+		JLabel label = new JLabel("Color");
+		label.setForeground(Color.WHITE);
+		label.setMaximumSize(new Dimension(0, 0));
+		label.setPreferredSize(new Dimension(0, 0));
+		row.add(label);
+
+		JPanel buttons = new JPanel(new BorderLayout());
+		buttons.setBackground(ColorScheme.DARK_GRAY_COLOR);
+
+		JButton pickButton = new JButton(ANY_COLOR);
+		pickButton.setToolTipText("Only include items with a color close to this one");
+		pickButton.setPreferredSize(new Dimension(pickButton.getPreferredSize().width, 25));
+		pickButton.setFocusable(false);
+		Color defaultBackground = pickButton.getBackground();
+		Color defaultForeground = pickButton.getForeground();
+
+		JButton clearButton = new JButton();
+		ImageIcons.setCloseIcon(clearButton);
+		clearButton.setToolTipText("Search any color");
+		clearButton.setVisible(false);
+		clearButton.addActionListener(e -> {
+			color = SearchService.ANY_COLOR;
+			pickButton.setText(ANY_COLOR);
+			pickButton.setBackground(defaultBackground);
+			pickButton.setForeground(defaultForeground);
+			clearButton.setVisible(false);
+			triggerSearch();
+		});
+
+		pickButton.addActionListener(e -> {
+			short start = color != SearchService.ANY_COLOR ? (short) color : DEFAULT_PICKER_COLOR;
+			HslColorPicker picker = new HslColorPicker(start, start);
+			int result = DialogUtil.showConfirmDialogNearCursor(
+				SwingUtilities.windowForComponent(this),
+				picker,
+				"Search by color",
+				JOptionPane.OK_CANCEL_OPTION,
+				JOptionPane.PLAIN_MESSAGE
+			);
+			if (result == JOptionPane.OK_OPTION)
+			{
+				short hsl = picker.getColor();
+				color = hsl & 0xFFFF;
+				Color displayColor = Colors.hslToColor(hsl);
+				pickButton.setText(Colors.formatHSL(hsl));
+				pickButton.setBackground(displayColor);
+				pickButton.setForeground(ImageIcons.shouldUseDarkForeground(displayColor) ? Color.BLACK : Color.WHITE);
+				clearButton.setVisible(true);
+				triggerSearch();
+			}
+		});
+
+		buttons.add(pickButton, BorderLayout.CENTER);
+		buttons.add(clearButton, BorderLayout.EAST);
+		row.add(buttons);
+
+		row.setMaximumSize(new Dimension(Integer.MAX_VALUE, row.getPreferredSize().height));
+		return row;
+	}
+
 	private void triggerSearch()
 	{
 		if (pendingSearch != null)
 		{
 			pendingSearch.cancel(false);
 		}
-		pendingSearch = executor.schedule(() -> clientThread.invokeLater(() -> {
+		// Searches run on the executor against the search snapshot; only icons are fetched on the client thread.
+		pendingSearch = executor.schedule(() -> {
 			if (!executeSearch())
 			{
 				triggerSearch();
 			}
-		}), DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+		}, DEBOUNCE_MS, TimeUnit.MILLISECONDS);
 	}
 
 	private boolean executeSearch()
@@ -348,64 +509,150 @@ class SearchPanel extends JPanel
 			return false;
 		}
 
-		String query = searchField.getText().trim();
-		if (query.length() < 2)
+		// Whether a callback now owns resetting searching
+		boolean handedOff = false;
+		try
 		{
-			SwingUtilities.invokeLater(() -> {
-				SwingUtil.fastRemoveAll(resultsContainer);
-				resultsContainer.updateUI();
-				if (query.length() == 1)
-				{
-					infoPanel.setContent("Too short", "Type a longer search for results");
-				}
-				else
-				{
-					infoPanel.setContent("Search", "Search for items to add to your plate.");
-				}
-				cards.show(cardPanel, CARD_INFO);
-				searching.set(false);
-			});
+			String query = searchField.getText().trim();
+			// A color alone is enough to search
+			if (query.length() < 2 && color == SearchService.ANY_COLOR)
+			{
+				handedOff = true;
+				SwingUtilities.invokeLater(() -> {
+					results = null;
+					SwingUtil.fastRemoveAll(resultsContainer);
+					resultsContainer.updateUI();
+					if (query.length() == 1)
+					{
+						infoPanel.setContent("Too short", "Type a longer search for results");
+					}
+					else
+					{
+						infoPanel.setContent("Search", "Search for items to add to your plate.");
+					}
+					cards.show(cardPanel, CARD_INFO);
+					searching.set(false);
+				});
+				return true;
+			}
+			if (color != SearchService.ANY_COLOR && !searchService.prepareColorSearch())
+			{
+				// Retried by triggerSearch until the color index is built
+				SwingUtilities.invokeLater(() -> {
+					results = null;
+					SwingUtil.fastRemoveAll(resultsContainer);
+					infoPanel.setContent("Indexing colors", "Color search will be ready in a moment.");
+					cards.show(cardPanel, CARD_INFO);
+				});
+				return false;
+			}
+
+			long releasedFrom = SearchService.ANY_TIME_FROM;
+			long releasedTo = SearchService.ANY_TIME_TO;
+			if (releaseYear != 0)
+			{
+				releasedFrom = LocalDate.of(releaseYear, 1, 1).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+				releasedTo = LocalDate.of(releaseYear + 1, 1, 1).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+			}
+			SearchResults searchResults = searchService.search(query, color, ordering, fuzzy, alreadyAddedIds, includeQuest, includeUncommon,
+				releasedFrom, releasedTo);
+			searchService.loadIcons(searchResults.next(PAGE_SIZE), page -> buildResults(searchResults, page));
+			handedOff = true;
 			return true;
 		}
-
-		List<SearchResult> results = searchService.search(query, ordering, includeQuest, includeUncommon, null);
-		buildResults(results);
-		return true;
+		catch (RuntimeException e)
+		{
+			log.warn("Search failed", e);
+			return true;
+		}
+		finally
+		{
+			if (!handedOff)
+			{
+				searching.set(false);
+			}
+		}
 	}
 
-	private void buildResults(List<SearchResult> results)
+	// Loads and appends the next page of the current results, unless one is already loading
+	private void loadNextPage()
 	{
-		SwingUtilities.invokeLater(() -> {
-			SwingUtil.fastRemoveAll(resultsContainer);
-
-			if (results.isEmpty())
+		var searchResults = results;
+		if (searchResults == null || !searchResults.hasNext() || !loadingPage.compareAndSet(false, true))
+		{
+			return;
+		}
+		executor.execute(() -> {
+			try
 			{
-				infoPanel.setContent("No results", "No matching items found");
-				cards.show(cardPanel, CARD_INFO);
+				searchService.loadIcons(searchResults.next(PAGE_SIZE), page ->
+					SwingUtilities.invokeLater(() -> {
+						try
+						{
+							// Drop the page if a new search replaced these results meanwhile
+							if (searchResults == results)
+							{
+								addResults(page);
+								resultsContainer.revalidate();
+							}
+						}
+						finally
+						{
+							loadingPage.set(false);
+						}
+					}));
 			}
-			else
+			catch (RuntimeException e)
 			{
-				for (SearchResult result : results)
-				{
-					int itemId = result.getId();
-					boolean duplicate = alreadyAddedIds.contains(itemId);
-					SearchResultPanel panel = new SearchResultPanel(result, onItemSelected, duplicate, config.iconScale() / 100f);
+				log.warn("Loading search results failed", e);
+				loadingPage.set(false);
+			}
+		});
+	}
 
-					JPanel margin = new JPanel(new BorderLayout());
-					margin.setBackground(ColorScheme.DARK_GRAY_COLOR);
-					margin.setBorder(new EmptyBorder(2, 10, 2, 10));
-					margin.add(panel, BorderLayout.CENTER);
-					margin.setMaximumSize(new Dimension(Integer.MAX_VALUE, margin.getPreferredSize().height));
+	private void buildResults(SearchResults searchResults, List<SearchResult> firstPage)
+	{
+		SwingUtilities.invokeLater(() -> {
+			try
+			{
+				SwingUtil.fastRemoveAll(resultsContainer);
+				results = searchResults;
 
-					resultsContainer.add(margin);
+				if (firstPage.isEmpty())
+				{
+					infoPanel.setContent("No results", "No matching items found");
+					cards.show(cardPanel, CARD_INFO);
+				}
+				else
+				{
+					addResults(firstPage);
+					cards.show(cardPanel, CARD_RESULTS);
+					resultsContainer.revalidate();
+					scroll.getVerticalScrollBar().setValue(0);
 				}
-
-				cards.show(cardPanel, CARD_RESULTS);
-				resultsContainer.revalidate();
-				scroll.getVerticalScrollBar().setValue(0);
 			}
-
-			searching.set(false);
+			finally
+			{
+				searching.set(false);
+			}
 		});
 	}
+
+	private void addResults(List<SearchResult> page)
+	{
+		for (SearchResult result : page)
+		{
+			int itemId = result.getId();
+			boolean duplicate = alreadyAddedIds.contains(itemId);
+			SearchResultPanel panel = new SearchResultPanel(result, onItemSelected, duplicate, config.iconScale() / 100f);
+
+			JPanel margin = new JPanel(new BorderLayout());
+			margin.setBackground(ColorScheme.DARK_GRAY_COLOR);
+			margin.setBorder(new EmptyBorder(2, 10, 2, 10));
+			margin.add(panel, BorderLayout.CENTER);
+			margin.setMaximumSize(new Dimension(Integer.MAX_VALUE, margin.getPreferredSize().height));
+
+			resultsContainer.add(margin);
+		}
+	}
 }
@@ -0,0 +1,152 @@
+package io.huze.glamourer.item;
+
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the allocation-free {@link DedupeKey#hashOf} and {@link DedupeKey#matches} against the keys they stand in
+ * for, which are built with the {@link DedupeKey#stripName} regexes.
+ */
+public class DedupeKeyTest
+{
+	// Parentheses, separators and a few letters, so random names hit every way of stripping a name
+	private static final char[] NAME_CHARS = {'a', 'b', 'A', 'Z', '(', ')', '(', ')', ' ', '\n', '-', '\'', '4', 'é'};
+	// Members of two families and a few models in none
+	private static final int[] MODELS = {2789, 2621, 2384, 37951, 37966, 100, 101};
+
+	@Test
+	public void parenthesesAreStrippedFromFirstOpenToLastClose()
+	{
+		assertStripped("Rune platebody (g)", "Runeplatebody");
+		assertStripped("Dragon dagger(p++)", "Dragondagger");
+		assertStripped("a(b(c)d)e", "ae");
+		assertStripped("a(b)c(d)e", "ae");
+		assertStripped("a)b(c)d", "abd");
+		assertStripped("a(b)c)d(e", "ade");
+		assertStripped("a)b(c", "abc");
+		assertStripped("(a", "a");
+		assertStripped("a)", "a");
+		assertStripped("a(b\nc)d", "ad");
+		assertStripped("()", "");
+		assertStripped("", "");
+	}
+
+	@Test
+	public void hashOfEqualsHashOfKey()
+	{
+		var random = new Random(13);
+		for (int i = 0; i < 20000; i++)
+		{
+			var raw = randomRaw(random);
+			var key = DedupeKey.from(raw.name, raw.model, raw.colors, raw.textures);
+			Assert.assertEquals(raw.toString(), key.hash(), DedupeKey.hashOf(raw.name, raw.model, raw.colors, raw.textures));
+			Assert.assertTrue(raw.toString(), key.matches(raw.name, raw.model, raw.colors, raw.textures));
+		}
+	}
+
+	@Test
+	public void matchesEqualsSameStringForm()
+	{
+		var random = new Random(17);
+		int matched = 0;
+		for (int i = 0; i < 20000; i++)
+		{
+			var a = randomRaw(random);
+			var b = random.nextBoolean() ? variantOf(random, a) : randomRaw(random);
+			var keyA = DedupeKey.from(a.name, a.model, a.colors, a.textures);
+			var keyB = DedupeKey.from(b.name, b.model, b.colors, b.textures);
+			boolean expected = keyA.toString().equals(keyB.toString());
+			Assert.assertEquals(a + " / " + b, expected, keyA.matches(b.name, b.model, b.colors, b.textures));
+			if (expected)
+			{
+				Assert.assertEquals(a + " / " + b, keyA.hash(), keyB.hash());
+				matched++;
+			}
+		}
+		// Enough pairs of each kind to mean something
+		Assert.assertTrue(matched > 2000 && matched < 18000);
+	}
+
+	private static void assertStripped(String name, String stripped)
+	{
+		Assert.assertEquals(name, stripped, DedupeKey.stripName(name));
+		var expected = DedupeKey.from(name, 100, null, null);
+		Assert.assertEquals(name, expected.hash(), DedupeKey.hashOf(name, 100, null, null));
+		Assert.assertTrue(name, expected.matches(name, 100, new short[0], null));
+	}
+
+	private static final class Raw
+	{
+		String name;
+		int model;
+		short[] colors;
+		short[] textures;
+
+		@Override
+		public String toString()
+		{
+			return '"' + name + "\":" + model + ':' + DedupeKey.from(name, model, colors, textures);
+		}
+	}
+
+	private static Raw randomRaw(Random random)
+	{
+		var raw = new Raw();
+		var sb = new StringBuilder();
+		int length = random.nextInt(10);
+		for (int i = 0; i < length; i++)
+		{
+			sb.append(NAME_CHARS[random.nextInt(NAME_CHARS.length)]);
+		}
+		raw.name = sb.toString();
+		raw.model = MODELS[random.nextInt(MODELS.length)];
+		raw.colors = randomShorts(random);
+		raw.textures = randomShorts(random);
+		return raw;
+	}
+
+	// Null, empty or a couple of values from a small set, so arrays are often equal
+	private static short[] randomShorts(Random random)
+	{
+		int length = random.nextInt(4) - 1;
+		if (length < 0)
+		{
+			return null;
+		}
+		var array = new short[length];
+		for (int i = 0; i < length; i++)
+		{
+			array[i] = (short) (random.nextInt(3) - 1);
+		}
+		return array;
+	}
+
+	// The same item with one field changed in a way that may or may not change its key
+	private static Raw variantOf(Random random, Raw raw)
+	{
+		var variant = new Raw();
+		variant.name = raw.name;
+		variant.model = raw.model;
+		variant.colors = raw.colors;
+		variant.textures = raw.textures;
+		switch (random.nextInt(4))
+		{
+			case 0:
+				int at = random.nextInt(raw.name.length() + 1);
+				variant.name = raw.name.substring(0, at) + NAME_CHARS[random.nextInt(NAME_CHARS.length)]
+					+ raw.name.substring(at);
+				break;
+			case 1:
+				variant.model = MODELS[random.nextInt(MODELS.length)];
+				break;
+			case 2:
+				variant.colors = raw.colors == null ? new short[0] : raw.colors.length == 0 ? null : raw.colors.clone();
+				break;
+			default:
+				variant.textures = randomShorts(random);
+				break;
+		}
+		return variant;
+	}
+}
@@ -0,0 +1,198 @@
+package io.huze.glamourer.item;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FuzzyIndexTest
+{
+	private static final String[] NAMES = {
+		"Rune platebody", "Rune platelegs", "Rune full helm", "Dragon dagger", "Dragon dagger(p++)", "Abyssal whip",
+		"Bronze sword", "Iron scimitar", "Mithril platebody (g)", "Adamant kiteshield", "Black d'hide body",
+		"Dragon scimitar", "Granite maul", "Amulet of glory(4)", "Runite bar", "Rune essence", "Armadyl godsword",
+		"Bandos tassets", "Crystal bow", "Toxic blowpipe", "Void knight top", "Ancient staff", "Rume", "Mmmmm",
+	};
+
+	@Test
+	public void shortQueriesFindNamesSharingNoTrigram()
+	{
+		var index = build(NAMES);
+		Assert.assertTrue(matchedIds(index.matching("rume")).contains(0));
+		Assert.assertTrue(matchedIds(index.matching("dragn")).contains(3));
+		Assert.assertTrue(matchedIds(index.matching("runeplate")).contains(0));
+	}
+
+	@Test
+	public void matchesEqualPlainEditDistance()
+	{
+		var random = new Random(42);
+		var names = new String[2000];
+		for (int i = 0; i < names.length; i++)
+		{
+			names[i] = i < NAMES.length ? NAMES[i] : randomName(random);
+		}
+		var index = build(names);
+
+		for (int q = 0; q < 3000; q++)
+		{
+			String query = randomQuery(random, names);
+			var expected = new ArrayList<FuzzyIndex.Match>();
+			var pattern = FuzzyIndex.compact(query);
+			if (pattern.length() >= 3 && pattern.length() <= Long.SIZE)
+			{
+				int maxEdits = FuzzyIndex.maxEdits(pattern.length());
+				for (int i = 0; i < names.length; i++)
+				{
+					int distance = substringDistance(pattern, FuzzyIndex.compact(names[i]));
+					if (distance <= maxEdits)
+					{
+						expected.add(new FuzzyIndex.Match(i, distance));
+					}
+				}
+			}
+			Assert.assertEquals(query, expected, index.matching(query));
+		}
+	}
+
+	@Test
+	public void checksFewNames()
+	{
+		var random = new Random(7);
+		var names = new String[5000];
+		for (int i = 0; i < names.length; i++)
+		{
+			names[i] = i < NAMES.length ? NAMES[i] : randomWords(random);
+		}
+		var index = build(names);
+
+		for (int q = 0; q < 1000; q++)
+		{
+			String query = randomQuery(random, names);
+			var pattern = FuzzyIndex.compact(query);
+			if (pattern.length() < 4 || pattern.length() > Long.SIZE)
+			{
+				continue;
+			}
+			var candidates = index.candidates(pattern, FuzzyIndex.maxEdits(pattern.length()));
+			for (var match : index.matching(query))
+			{
+				Assert.assertTrue(query, candidates.get(match.getItemId()));
+			}
+			// Two-letter pieces are the weakest filter, and each is in a few percent of these names at most
+			Assert.assertTrue(query + " checks " + candidates.cardinality() + " names",
+				candidates.cardinality() <= names.length / 20);
+		}
+	}
+
+	private static FuzzyIndex build(String[] names)
+	{
+		var itemIds = new int[names.length];
+		for (int i = 0; i < itemIds.length; i++)
+		{
+			itemIds[i] = i;
+		}
+		return FuzzyIndex.build(itemIds, names);
+	}
+
+	private static List<Integer> matchedIds(List<FuzzyIndex.Match> matches)
+	{
+		var ids = new ArrayList<Integer>();
+		for (var match : matches)
+		{
+			ids.add(match.getItemId());
+		}
+		return ids;
+	}
+
+	// A small alphabet, so that names share plenty of trigrams and near misses
+	private static String randomName(Random random)
+	{
+		var sb = new StringBuilder();
+		int length = 3 + random.nextInt(20);
+		for (int i = 0; i < length; i++)
+		{
+			sb.append(random.nextInt(6) == 0 ? ' ' : (char) ('a' + random.nextInt(6)));
+		}
+		return sb.toString();
+	}
+
+	// Words over the whole alphabet, for names about as distinct as real ones
+	private static String randomWords(Random random)
+	{
+		var sb = new StringBuilder();
+		int words = 1 + random.nextInt(3);
+		for (int w = 0; w < words; w++)
+		{
+			if (w > 0)
+			{
+				sb.append(' ');
+			}
+			int length = 3 + random.nextInt(6);
+			for (int i = 0; i < length; i++)
+			{
+				sb.append((char) ('a' + random.nextInt(26)));
+			}
+		}
+		return sb.toString();
+	}
+
+	// A piece of a name with a few random edits, or now and then a random string
+	private static String randomQuery(Random random, String[] names)
+	{
+		if (random.nextInt(10) == 0)
+		{
+			return randomName(random);
+		}
+		var name = FuzzyIndex.compact(names[random.nextInt(names.length)]);
+		int start = random.nextInt(name.length());
+		var sb = new StringBuilder(name.substring(start, start + random.nextInt(name.length() - start + 1)));
+		int edits = random.nextInt(4);
+		for (int e = 0; e < edits; e++)
+		{
+			int at = random.nextInt(sb.length() + 1);
+			char c = (char) ('a' + random.nextInt(6));
+			int kind = random.nextInt(3);
+			if (kind == 0 || at == sb.length())
+			{
+				sb.insert(at, c);
+			}
+			else if (kind == 1)
+			{
+				sb.deleteCharAt(at);
+			}
+			else
+			{
+				sb.setCharAt(at, c);
+			}
+		}
+		return sb.toString();
+	}
+
+	// Fewest edits turning the pattern into any substring of the text, by the plain dynamic program
+	private static int substringDistance(String pattern, String text)
+	{
+		var previous = new int[pattern.length() + 1];
+		var current = new int[pattern.length() + 1];
+		for (int i = 0; i <= pattern.length(); i++)
+		{
+			previous[i] = i;
+		}
+		int best = previous[pattern.length()];
+		for (int j = 1; j <= text.length(); j++)
+		{
+			current[0] = 0;
+			for (int i = 1; i <= pattern.length(); i++)
+			{
+				int substitution = previous[i - 1] + (pattern.charAt(i - 1) == text.charAt(j - 1) ? 0 : 1);
+				current[i] = Math.min(substitution, Math.min(previous[i], current[i - 1]) + 1);
+			}
+			best = Math.min(best, current[pattern.length()]);
+			var swap = previous;
+			previous = current;
+			current = swap;
+		}
+		return best;
+	}
+}
@@ -0,0 +1,133 @@
+package io.huze.glamourer.item;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.InflaterInputStream;
+import lombok.AllArgsConstructor;
+
+/**
+ * Compares item sheet load strategies against the shipped resources. Run with {@code ./gradlew itemSheetBenchmark}.
+ */
+public class ItemSheetBenchmark
+{
+	private static final int WARMUP = 50;
+	private static final int ITERATIONS = 200;
+
+	interface Loader
+	{
+		Object load(byte[] data) throws IOException;
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		// The CSV is not packaged as a resource, so it is read from the source tree.
+		byte[] csv = Files.readAllBytes(Path.of(args[0]));
+		byte[] bin = readResource(ItemSheet.BINARY_RESOURCE);
+
+		run("split (legacy)", csv, ItemSheetBenchmark::splitParse);
+		run("byte parser", csv, data -> ItemSheetCsvParser.parse(new ByteArrayInputStream(data)));
+		if (bin != null)
+		{
+			run("deflated binary", bin, data -> ItemTable.read(new InflaterInputStream(new ByteArrayInputStream(data))));
+		}
+	}
+
+	private static void run(String name, byte[] data, Loader loader) throws IOException
+	{
+		for (int i = 0; i < WARMUP; i++)
+		{
+			loader.load(data);
+		}
+
+		var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		long allocStart = threads.getThreadAllocatedBytes(threadId);
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++)
+		{
+			loader.load(data);
+		}
+		long elapsed = System.nanoTime() - start;
+		long allocated = threads.getThreadAllocatedBytes(threadId) - allocStart;
+
+		double ms = elapsed / 1e6 / ITERATIONS;
+		System.out.printf("%-16s %8.3f ms/load %8.1f MB/s %10d KB allocated/load%n",
+			name, ms, data.length / 1e6 / (ms / 1e3), allocated / ITERATIONS / 1024);
+	}
+
+	@AllArgsConstructor
+	private static class LegacyRow
+	{
+		final int id;
+		final long releaseDate;
+		final long removalDate;
+		final boolean isQuest;
+		final short category;
+		final int maleModel0;
+		final int maleModel1;
+		final int maleModel2;
+		final int femaleModel0;
+		final int femaleModel1;
+		final int femaleModel2;
+	}
+
+	// The original ItemSheet load path: readLine, split, trim and an object per row.
+	private static Map<Integer, LegacyRow> splitParse(byte[] data) throws IOException
+	{
+		List<LegacyRow> items = new ArrayList<>();
+		try (var br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data))))
+		{
+			String line;
+			boolean isFirstLine = true;
+			while ((line = br.readLine()) != null)
+			{
+				if (line.startsWith("#"))
+				{
+					continue;
+				}
+				if (isFirstLine)
+				{
+					isFirstLine = false;
+					continue;
+				}
+				String[] cols = line.split(",", -1);
+				int i = 0;
+				items.add(new LegacyRow(
+					Integer.parseInt(cols[i++].trim()),
+					Long.parseLong(cols[i++].trim()),
+					Long.parseLong(cols[i++].trim()),
+					Boolean.parseBoolean(cols[i++].trim()),
+					Short.parseShort(cols[i++].trim()),
+					Integer.parseInt(cols[i++].trim()),
+					Integer.parseInt(cols[i++].trim()),
+					Integer.parseInt(cols[i++].trim()),
+					Integer.parseInt(cols[i++].trim()),
+					Integer.parseInt(cols[i++].trim()),
+					Integer.parseInt(cols[i].trim())));
+			}
+		}
+		Map<Integer, LegacyRow> byId = new HashMap<>();
+		for (var item : items)
+		{
+			byId.put(item.id, item);
+		}
+		return byId;
+	}
+
+	private static byte[] readResource(String name) throws IOException
+	{
+		try (var is = ItemSheet.class.getResourceAsStream(name))
+		{
+			return is == null ? null : is.readAllBytes();
+		}
+	}
+}
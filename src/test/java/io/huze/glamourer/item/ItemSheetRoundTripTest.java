@@ -0,0 +1,99 @@
+package io.huze.glamourer.item;
+
+import java.io.IOException;
+import java.util.zip.InflaterInputStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that the {@code compileItemSheet} encoder and {@link ItemSheetCsvParser} read the same sheet the same way.
+ * The fixtures are compiled with the same encoder by the {@code compileTestItemSheets} Gradle task.
+ */
+public class ItemSheetRoundTripTest
+{
+	@Test
+	public void sheetWithoutOptionalColumns() throws IOException
+	{
+		var table = roundTrip("item_sheet_plain");
+		Assert.assertEquals(8, table.idCount);
+		Assert.assertFalse(table.contains(2));
+		Assert.assertTrue(table.isQuest(1));
+		Assert.assertFalse(table.isQuest(7));
+		Assert.assertEquals(-5, table.category[7]);
+		Assert.assertEquals(-1, table.modelOffset(1));
+		Assert.assertEquals(4022, table.getModel(3, 3));
+		Assert.assertNull(table.getPalette(3));
+		Assert.assertFalse(table.hasNames());
+	}
+
+	@Test
+	public void sheetWithPalettes() throws IOException
+	{
+		var table = roundTrip("item_sheet_palette");
+		Assert.assertNull(table.getPalette(0));
+		Assert.assertArrayEquals(new short[]{0, (short) 0xFFFF}, table.getPalette(1));
+		Assert.assertArrayEquals(new short[]{0x12AB, 0x34CD, 0x7FFF, (short) 0x8000}, table.getPalette(2));
+		Assert.assertArrayEquals(new short[]{0x0A0B}, table.getPalette(5));
+	}
+
+	@Test
+	public void sheetWithNames() throws IOException
+	{
+		var table = roundTrip("item_sheet_name");
+		Assert.assertEquals("Rune platebody", table.getName(0));
+		Assert.assertEquals("Sword, sharp, shiny", table.getName(1));
+		Assert.assertEquals("Bronze sword, broken", table.getName(2));
+		Assert.assertEquals("The \"Big\" hat", table.getName(3));
+		Assert.assertEquals("\"Quoted\", then, commas", table.getName(4));
+		Assert.assertEquals("Karil's \"leather\" top", table.getName(5));
+		Assert.assertEquals("Crème brûlée", table.getName(6));
+		Assert.assertEquals("Drachenschwert, ü, 龍の剣 🐉", table.getName(7));
+		Assert.assertNull(table.getName(8));
+		Assert.assertNull(table.getName(9));
+		Assert.assertNull(table.getPalette(0));
+	}
+
+	@Test
+	public void sheetWithPalettesAndNames() throws IOException
+	{
+		var table = roundTrip("item_sheet_palette_name");
+		Assert.assertEquals("Rune platebody", table.getName(0));
+		Assert.assertArrayEquals(new short[]{0, (short) 0xFFFF}, table.getPalette(0));
+		Assert.assertEquals("Sword, sharp, \"shiny\"", table.getName(1));
+		Assert.assertNull(table.getPalette(1));
+		Assert.assertNull(table.getName(2));
+		Assert.assertArrayEquals(new short[]{0x12AB}, table.getPalette(2));
+		Assert.assertEquals("Épée à deux mains", table.getName(4));
+		Assert.assertEquals(4021, table.getModel(4, 0));
+	}
+
+	// Reads the fixture both ways, checks every column matches and returns the compiled table
+	private static ItemTable roundTrip(String fixture) throws IOException
+	{
+		ItemTable parsed;
+		try (var in = ItemSheetRoundTripTest.class.getResourceAsStream(fixture + ".csv"))
+		{
+			parsed = ItemSheetCsvParser.parse(in);
+		}
+		ItemTable compiled;
+		try (var in = new InflaterInputStream(ItemSheetRoundTripTest.class.getResourceAsStream(fixture + ".bin.deflate")))
+		{
+			compiled = ItemTable.read(in);
+		}
+
+		Assert.assertEquals(parsed.idCount, compiled.idCount);
+		Assert.assertArrayEquals(parsed.releaseDate, compiled.releaseDate);
+		Assert.assertArrayEquals(parsed.removalDate, compiled.removalDate);
+		Assert.assertArrayEquals(parsed.category, compiled.category);
+		Assert.assertArrayEquals(parsed.flags, compiled.flags);
+		Assert.assertArrayEquals(parsed.modelRow, compiled.modelRow);
+		Assert.assertArrayEquals(parsed.models, compiled.models);
+		Assert.assertArrayEquals(parsed.paletteRow, compiled.paletteRow);
+		Assert.assertArrayEquals(parsed.paletteStart, compiled.paletteStart);
+		Assert.assertArrayEquals(parsed.paletteColors, compiled.paletteColors);
+		Assert.assertArrayEquals(parsed.nameRow, compiled.nameRow);
+		Assert.assertArrayEquals(parsed.nameStart, compiled.nameStart);
+		Assert.assertArrayEquals(parsed.nameBytes, compiled.nameBytes);
+		return compiled;
+	}
+}